@@ -0,0 +1,81 @@
+package sc6;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the area level primitives
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+public class AreaBenchmark {
+
+	@Param({ "80x60", "500x500", "2000x2000" })
+	public String gridSize;
+
+	/**
+	 * Number of drones, each one computing a distance per invocation
+	 */
+	@Param({ "5", "100", "1000" })
+	public int drones;
+
+	private DrAmas drAmas;
+	private Area[] from;
+	private Area[] to;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		drAmas = Simulations.create(gridSize, drones, 0);
+		World world = drAmas.getEnvironment();
+		Random random = new Random(Simulations.SEED);
+		from = new Area[drones];
+		to = new Area[drones];
+		for (int i = 0; i < drones; i++) {
+			from[i] = world.getAreaByPosition(random.nextInt(world.getWidth()), random.nextInt(world.getHeight()));
+			to[i] = world.getAreaByPosition(random.nextInt(world.getWidth()), random.nextInt(world.getHeight()));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		drAmas.onSchedulingStops();
+	}
+
+	/**
+	 * Building the neighbours of every area, which replaced the calls to
+	 * Area.setNeighbours
+	 */
+	@Benchmark
+	public NeighbourGraph buildNeighbours() {
+		return new NeighbourGraph(NeighbourGraph.Layout.SQUARE, drAmas.getEnvironment().getAreas());
+	}
+
+	/**
+	 * Area.distanceTo, once per drone
+	 */
+	@Benchmark
+	public void distanceTo(Blackhole blackhole) {
+		for (int i = 0; i < from.length; i++)
+			blackhole.consume(from[i].distanceTo(to[i]));
+	}
+}
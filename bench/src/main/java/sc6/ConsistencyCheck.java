@@ -0,0 +1,321 @@
+package sc6;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import fr.irit.smac.amak.Scheduling;
+import sc6.Area.AreaType;
+
+/**
+ * Check the incrementally maintained structures of the simulation against
+ * full computations, on random changes. Unlike the benchmarks, it is run
+ * directly:
+ *
+ * java -cp bench/target/benchmarks.jar sc6.ConsistencyCheck [-seeds N]
+ * [-changes C]
+ *
+ * For each seed, the areas of a small storage get random types and outdate
+ * factors, then C random scans, critical marks, changes of type and of
+ * outdate factor are applied from its very first cycle on, and the statistics
+ * of the {@link CriticalityAggregator} are compared with a full scan of the
+ * criticalities after each cycle. Then C random changes of type are applied
+ * to a small world, alternately of each layout, and the structures the
+ * changes repair are compared with full computations: the flow field after
+ * each change, the routes cached by the router of the world and by a small
+ * router every 10 changes, routes being asked between a few random areas in
+ * the meantime.
+ *
+ */
+public class ConsistencyCheck {
+	/**
+	 * Relative tolerance of the comparisons of the sums
+	 */
+	private static final double TOLERANCE = 1e-9;
+
+	/**
+	 * Number of random runs
+	 */
+	private int seeds = 20;
+	/**
+	 * Number of random changes of each run
+	 */
+	private int changes = 1000;
+
+	/**
+	 * Launch the checks
+	 *
+	 * @param args
+	 *            Options of the checks
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		ConsistencyCheck check = new ConsistencyCheck();
+		try {
+			check.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: ConsistencyCheck [-seeds N] [-changes C]");
+			System.exit(1);
+		}
+		try {
+			for (long seed = 0; seed < check.seeds; seed++) {
+				check.checkCriticalities(seed);
+				check.checkRepairs(seed);
+			}
+		} catch (IllegalStateException e) {
+			System.err.println("Check failed: " + e.getMessage());
+			System.exit(1);
+		}
+		System.out.printf(Locale.ROOT, "Checked %d runs of %d changes%n", check.seeds, check.changes);
+	}
+
+	/**
+	 * Read the options of the checks
+	 *
+	 * @param args
+	 *            the command line arguments
+	 */
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + option);
+			String value = args[++i];
+			try {
+				switch (option) {
+				case "-seeds":
+					seeds = Integer.parseInt(value);
+					break;
+				case "-changes":
+					changes = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+				if (seeds < 0 || changes < 0)
+					throw new NumberFormatException();
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+			}
+		}
+	}
+
+	/**
+	 * Apply random changes to a storage, the first ones before its first
+	 * cycle, and compare the aggregated criticalities with a full scan after
+	 * each cycle
+	 *
+	 * @param seed
+	 *            the seed of the changes
+	 * @throws IllegalStateException
+	 *             if the aggregated criticalities differ from the scan
+	 */
+	private void checkCriticalities(long seed) {
+		Random random = new Random(seed);
+		AreaStorage storage = new AreaStorage(1 + random.nextInt(12), 1 + random.nextInt(12));
+		CriticalityAggregator criticalities = storage.getCriticalities();
+		AreaType[] types = AreaType.values();
+		float[] factors = { 0, 0.5f, 1, 3, 50 };
+		// Like the loading of a map, then the first scans happen at cycle 0
+		for (int index = 0; index < storage.size(); index++) {
+			storage.setType(index, types[random.nextInt(types.length)]);
+			storage.setOutdateFactor(index, factors[random.nextInt(factors.length)]);
+		}
+		for (int i = 0; i < changes; i++) {
+			int index = random.nextInt(storage.size());
+			switch (random.nextInt(5)) {
+			case 0:
+				storage.setNextTimeSinceLastSeen(index, 0);
+				break;
+			case 1:
+				storage.setNextTimeSinceLastSeen(index, 1000);
+				break;
+			case 2:
+				storage.setType(index, types[random.nextInt(types.length)]);
+				break;
+			case 3:
+				storage.setOutdateFactor(index, factors[random.nextInt(factors.length)]);
+				break;
+			default:
+				storage.cycle();
+				CriticalityKernel.Reduction scan = storage.scanCriticalities(null);
+				if (Math.abs(criticalities.getSum() - scan.getSum()) > TOLERANCE * Math.max(1, scan.getSum())
+						|| criticalities.getMax() != scan.getMax())
+					throw new IllegalStateException(String.format(Locale.ROOT,
+							"Seed %d, cycle %d: sum %.6f and max %.6f instead of %.6f and %.6f", seed,
+							storage.getCycle(), criticalities.getSum(), criticalities.getMax(), scan.getSum(),
+							scan.getMax()));
+			}
+		}
+	}
+
+	/**
+	 * Apply random changes of type to a world, and check the repaired
+	 * structures after each of them
+	 *
+	 * @param seed
+	 *            the seed of the world and of the changes
+	 * @throws IllegalStateException
+	 *             if a structure differs from its full computation
+	 */
+	private void checkRepairs(long seed) {
+		Random random = new Random(seed);
+		NeighbourGraph.Layout[] layouts = NeighbourGraph.Layout.values();
+		World world = new World(Scheduling.HIDDEN, 10 + random.nextInt(40), 10 + random.nextInt(40),
+				layouts[(int) (seed % layouts.length)]);
+		world.setSeed(seed);
+		AreaStorage storage = world.getStorage();
+		AreaType[] types = { AreaType.FORBIDDEN, AreaType.ALLOWED, AreaType.RECHARGE, AreaType.SURVEY,
+				AreaType.GEOFENCEE, AreaType.ALLOWED, AreaType.ALLOWED };
+		// Few ends, so that the routes are found in the cache again
+		int[] ends = new int[40];
+		for (int i = 0; i < ends.length; i++)
+			ends[i] = random.nextInt(storage.size());
+		// A small cache also checks the evictions and the reindexing
+		Router small = new Router(storage, 100);
+		storage.addTypeListener(small);
+		Router[] routers = { world.getRouter(), small };
+		for (int i = 0; i < changes; i++) {
+			storage.setType(random.nextInt(storage.size()), types[random.nextInt(types.length)]);
+			checkFlowField(storage, world.getFlowField());
+			for (Router router : routers) {
+				for (int j = 0; j < 10; j++)
+					router.route(ends[random.nextInt(ends.length)], ends[random.nextInt(ends.length)]);
+				if (i % 10 == 9)
+					checkRouter(storage, router);
+			}
+		}
+		for (Router router : routers)
+			checkRouter(storage, router);
+	}
+
+	/**
+	 * Check a repaired flow field against a full computation. The distances
+	 * must be equal, and each next move must go to an allowed neighbour one
+	 * move closer to a station; among several shortest paths, the repairs may
+	 * choose another one than the full computation.
+	 *
+	 * @param storage
+	 *            the areas
+	 * @param field
+	 *            the repaired field
+	 * @throws IllegalStateException
+	 *             if the field differs from the full computation
+	 */
+	private static void checkFlowField(AreaStorage storage, FlowField field) {
+		FlowField expected = new FlowField(storage);
+		NeighbourGraph graph = storage.getNeighbourGraph();
+		for (int area = 0; area < storage.size(); area++) {
+			int distance = field.getDistance(area);
+			if (distance != expected.getDistance(area))
+				throw new IllegalStateException("Area " + area + " is at " + distance
+						+ " moves from a station instead of " + expected.getDistance(area));
+			int next = field.getNextHop(area);
+			if (distance == 0 || distance == FlowField.UNREACHABLE) {
+				if (next != FlowField.NONE)
+					throw new IllegalStateException(
+							"Area " + area + " has a next move but is at " + distance + " moves from a station");
+				continue;
+			}
+			boolean adjacent = false;
+			for (int p = graph.firstNeighbour(area); p < graph.endNeighbour(area); p++)
+				adjacent |= graph.neighbour(p) == next;
+			if (!adjacent || !storage.isAllowed(next) || field.getDistance(next) != distance - 1)
+				throw new IllegalStateException("Invalid next move from area " + area + " to " + next);
+		}
+	}
+
+	/**
+	 * Check the cached routes of a router against breadth-first searches, to
+	 * validate the invalidations. Each cached route must only go through
+	 * allowed neighbours, be indexed by all its areas, and be no shorter than
+	 * a shortest route; it may be longer since areas became allowed. Each
+	 * cached absence of route must still have no route.
+	 *
+	 * @param storage
+	 *            the areas
+	 * @param router
+	 *            the router
+	 * @throws IllegalStateException
+	 *             if a cached route is not valid anymore
+	 */
+	private static void checkRouter(AreaStorage storage, Router router) {
+		NeighbourGraph graph = storage.getNeighbourGraph();
+		int[] distances = new int[storage.size()];
+		int[] queue = new int[storage.size()];
+		for (Map.Entry<Long, Router.Route> entry : router.copyCache().entrySet()) {
+			long key = entry.getKey();
+			int from = (int) (key >>> 32);
+			int to = (int) key;
+			Router.Route route = entry.getValue();
+			int distance = distance(storage, from, to, distances, queue);
+			if (route.isEmpty()) {
+				if (distance >= 0)
+					throw new IllegalStateException(
+							"No route cached from " + from + " to " + to + " but one of " + distance + " moves exists");
+				continue;
+			}
+			if (route.get(0) != from || route.get(route.size() - 1) != to)
+				throw new IllegalStateException("The route cached from " + from + " to " + to + " has other ends");
+			if (distance < 0 || route.size() - 1 < distance)
+				throw new IllegalStateException("The route cached from " + from + " to " + to + " has "
+						+ (route.size() - 1) + " moves but the shortest has " + distance);
+			for (int i = 0; i < route.size(); i++) {
+				int area = route.get(i);
+				if (!router.isIndexed(area, key))
+					throw new IllegalStateException(
+							"The route cached from " + from + " to " + to + " is not indexed by area " + area);
+				if (i == 0)
+					continue;
+				boolean adjacent = false;
+				for (int p = graph.firstNeighbour(route.get(i - 1)); p < graph.endNeighbour(route.get(i - 1)); p++)
+					adjacent |= graph.neighbour(p) == area;
+				if (!adjacent || !storage.isAllowed(area))
+					throw new IllegalStateException("The route cached from " + from + " to " + to
+							+ " goes through area " + area + " which is not an allowed neighbour");
+			}
+		}
+	}
+
+	/**
+	 * Count the moves of a shortest route with a breadth-first search
+	 *
+	 * @param storage
+	 *            the areas
+	 * @param from
+	 *            the index of the starting area
+	 * @param to
+	 *            the index of the destination
+	 * @param distances
+	 *            buffer of {@link AreaStorage#size()} elements
+	 * @param queue
+	 *            buffer of {@link AreaStorage#size()} elements
+	 * @return the number of moves, or -1 if there is no route
+	 */
+	private static int distance(AreaStorage storage, int from, int to, int[] distances, int[] queue) {
+		if (from == to)
+			return 0;
+		if (!storage.isAllowed(to))
+			return -1;
+		NeighbourGraph graph = storage.getNeighbourGraph();
+		Arrays.fill(distances, -1);
+		distances[from] = 0;
+		queue[0] = from;
+		int tail = 1;
+		for (int head = 0; head < tail; head++) {
+			int area = queue[head];
+			for (int p = graph.firstNeighbour(area); p < graph.endNeighbour(area); p++) {
+				int neighbour = graph.neighbour(p);
+				if (distances[neighbour] < 0 && storage.isAllowed(neighbour)) {
+					distances[neighbour] = distances[area] + 1;
+					if (neighbour == to)
+						return distances[neighbour];
+					queue[tail++] = neighbour;
+				}
+			}
+		}
+		return -1;
+	}
+}
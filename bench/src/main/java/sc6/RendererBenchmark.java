@@ -0,0 +1,76 @@
+package sc6;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of a full frame of the WorldViewer, drawn off-screen
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+public class RendererBenchmark {
+
+	/**
+	 * Sizes of the world, limited so that the frame fits in memory
+	 */
+	@Param({ "80x60", "200x150", "400x300" })
+	public String gridSize;
+
+	@Param({ "5", "100", "1000" })
+	public int drones;
+
+	private DrAmas drAmas;
+	private WorldSnapshot snapshot;
+	private WorldRenderer renderer;
+	private BufferedImage image;
+	private Graphics2D graphics;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		drAmas = Simulations.create(gridSize, drones, 100);
+		World world = drAmas.getEnvironment();
+		drAmas.getSnapshots().publish(drAmas);
+		snapshot = drAmas.getSnapshots().acquire();
+		renderer = new WorldRenderer();
+		image = new BufferedImage(world.getWidth() * WorldViewer.AREA_SIZE, world.getHeight() * WorldViewer.AREA_SIZE,
+				BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		graphics.dispose();
+		snapshot.release();
+		drAmas.onSchedulingStops();
+	}
+
+	/**
+	 * One frame of WorldViewer.onDraw, the snapshot being unchanged since the
+	 * first frame so that no area is repainted
+	 */
+	@Benchmark
+	public BufferedImage drawFrame() {
+		renderer.draw(graphics, snapshot);
+		return image;
+	}
+}
@@ -0,0 +1,109 @@
+package sc6;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the per cycle work of the environment and of the AMAS
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+public class SimulationBenchmark {
+
+	@Param({ "80x60", "500x500", "2000x2000" })
+	public String gridSize;
+
+	@Param({ "5", "100", "1000" })
+	public int drones;
+
+	private DrAmas drAmas;
+	private World world;
+	/**
+	 * Areas queried by getAgentsInArea, one per drone
+	 */
+	private Area[] queried;
+	/**
+	 * Criticality of each area, filled by the full scans
+	 */
+	private double[] criticalities;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		drAmas = Simulations.create(gridSize, drones, 100);
+		world = drAmas.getEnvironment();
+		Random random = new Random(Simulations.SEED);
+		criticalities = new double[world.getStorage().size()];
+		queried = new Area[drones];
+		for (int i = 0; i < drones; i++)
+			queried[i] = world.getAreaByPosition(random.nextInt(world.getWidth()), random.nextInt(world.getHeight()));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		drAmas.onSchedulingStops();
+	}
+
+	/**
+	 * World.onCycle, the aging of the areas
+	 */
+	@Benchmark
+	public void worldOnCycle() {
+		world.cycle();
+	}
+
+	/**
+	 * DrAmas.onSystemCycleEnd, the criticality reduction and statistics
+	 */
+	@Benchmark
+	public void systemCycleEnd() {
+		drAmas.onSystemCycleEnd();
+	}
+
+	/**
+	 * Full scan of the criticalities of every area, with the sum, the max and
+	 * the criticality grid computed in one pass
+	 */
+	@Benchmark
+	public CriticalityKernel.Reduction scanCriticalities() {
+		return world.getStorage().scanCriticalities(criticalities);
+	}
+
+	/**
+	 * One getAgentsInArea query per drone, as when every drone looks at an
+	 * area in the same cycle
+	 */
+	@Benchmark
+	public void getAgentsInArea(Blackhole blackhole) {
+		for (Area area : queried)
+			blackhole.consume(drAmas.getAgentsInArea(area));
+	}
+
+	/**
+	 * The same queries through the visitor, which does not allocate
+	 */
+	@Benchmark
+	public void forEachAgentInArea(Blackhole blackhole) {
+		for (Area area : queried)
+			drAmas.forEachAgentInArea(area, blackhole::consume);
+	}
+}
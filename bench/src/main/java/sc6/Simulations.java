@@ -0,0 +1,43 @@
+package sc6;
+
+import fr.irit.smac.amak.Scheduling;
+
+/**
+ * Creation of the simulations measured by the benchmarks
+ *
+ */
+final class Simulations {
+	/**
+	 * Seed used by every benchmark, so that runs are comparable
+	 */
+	static final long SEED = 42;
+
+	private Simulations() {
+	}
+
+	/**
+	 * Create a headless simulation and run a few cycles so that the areas and
+	 * the drones are in a realistic state
+	 * 
+	 * @param gridSize
+	 *            the size of the world, as WIDTHxHEIGHT
+	 * @param drones
+	 *            the number of drones
+	 * @param warmupCycles
+	 *            the number of cycles to run
+	 * @return the AMAS, whose agents executor is left started
+	 */
+	static DrAmas create(String gridSize, int drones, int warmupCycles) {
+		String[] size = gridSize.split("x");
+		World world = new World(Scheduling.HIDDEN, Integer.parseInt(size[0]), Integer.parseInt(size[1]),
+				NeighbourGraph.Layout.SQUARE);
+		world.setSeed(SEED);
+		DrAmas drAmas = new DrAmas(world, Scheduling.HIDDEN, drones, false);
+		drAmas.onSchedulingStarts();
+		for (int i = 0; i < warmupCycles; i++) {
+			world.cycle();
+			drAmas.cycle();
+		}
+		return drAmas;
+	}
+}
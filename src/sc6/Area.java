@@ -1,7 +1,6 @@
 package sc6;
 
-import java.awt.Color;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -11,9 +10,9 @@ import java.util.List;
  */
 public class Area {
 	/**
-	 * The amount of time (in cycles) since when the area hasn't been scanned
+	 * Default importance of the areas
 	 */
-	private double timeSinceLastSeen = 0;
+	public static final float DEFAULT_OUTDATE_FACTOR = 0.2f;
 	/**
 	 * The X coordinate of the area
 	 */
@@ -23,31 +22,24 @@ public class Area {
 	 */
 	private int y;
 	/**
-	 * The importance of the area. The more this value is high, the more this
-	 * area must be scanned often.
+	 * The storage holding the state of the area
+	 */
+	private final AreaStorage storage;
+	/**
+	 * The index of the area in the storage
+	 */
+	private final int index;
+	/**
+	 * Read-only view on the neighbours, created on the first request
 	 */
-	private double outdateFactor;
-	private double nextTimeSinceLastSeen = timeSinceLastSeen;
-	private Area topLeft;
-	private Area topRight;
-	private Area right;
-	private Area bottomRight;
-	private Area bottomLeft;
-	private Area left;
-	private Area top;
-	private Area bottom;
 	private List<Area> neighbours;
-	
-	private Color[] colors = {Color.CYAN,Color.BLUE,Color.GRAY,Color.GREEN, Color.MAGENTA, Color.PINK, Color.WHITE, Color.YELLOW};
 
 	public enum AreaType{
 		GEOFENCEE,SURVEY,WAITING,ALLOWED,FORBIDDEN, RECHARGE,PREPARATION
 	}
 
-	private AreaType type;
-
 	/**
-	 * Constructor of the area
+	 * Constructor of a standalone area, backed by its own storage
 	 * 
 	 * @param x
 	 *            X coordinate
@@ -55,38 +47,69 @@ public class Area {
 	 *            Y coordinate
 	 */
 	public Area(int x, int y) {
+		this(new AreaStorage(1, 1), x, y, 0);
+		storage.setType(index, defaultType(x, y, World.WIDTH, World.HEIGHT));
+		storage.setOutdateFactor(index, DEFAULT_OUTDATE_FACTOR);
+	}
+
+	/**
+	 * Constructor of an area of the world
+	 * 
+	 * @param storage
+	 *            The storage of the world areas
+	 * @param x
+	 *            X coordinate
+	 * @param y
+	 *            Y coordinate
+	 */
+	public Area(AreaStorage storage, int x, int y) {
+		this(storage, x, y, storage.indexOf(x, y));
+	}
+
+	private Area(AreaStorage storage, int x, int y, int index) {
 		// Set the position
 		this.x = x;
 		this.y = y;
-		this.neighbours = new ArrayList<Area>();
-		// Set a high importance for a specific set of areas
-		if(x <2 || x >= World.WIDTH-2 || y < 2 || y >=World.HEIGHT-2) {
-			this.type = AreaType.GEOFENCEE;
+		this.storage = storage;
+		this.index = index;
+	}
+
+	/**
+	 * Compute the type of an area in the default layout of the world
+	 * 
+	 * @param x
+	 *            X coordinate
+	 * @param y
+	 *            Y coordinate
+	 * @param width
+	 *            Number of areas of the world in width
+	 * @param height
+	 *            Number of areas of the world in height
+	 * @return the type of the area
+	 */
+	public static AreaType defaultType(int x, int y, int width, int height) {
+		if(x <2 || x >= width-2 || y < 2 || y >=height-2) {
+			return AreaType.GEOFENCEE;
 		}
 		else
 			if((x > 15 && y > 15 && x < 45 && y < 50) ||(x > 50 && y > 15 && x < 60 && y < 50)) {
-				this.type = AreaType.SURVEY;
-				this.timeSinceLastSeen = 0;
+				return AreaType.SURVEY;
 			}
 			else
 				if(x >10 && x < 16 && y > 15 && y < 40){
-					this.type = AreaType.PREPARATION;
+					return AreaType.PREPARATION;
 				}
 				else
 					if((y == 24 || y == 26 || y== 28 || y == 30 || y == 32)&& x == 8) {
-						this.type = AreaType.RECHARGE;
+						return AreaType.RECHARGE;
 					}
 					else {
 						if(x > 44 && x < 51 && y > 25 && y < 35) {
-							this.type = AreaType.FORBIDDEN;
+							return AreaType.FORBIDDEN;
 						}
 						else
-							this.type = AreaType.ALLOWED;
+							return AreaType.ALLOWED;
 					}
-		/*if (x > 10 && x < 20 && y > 10 && y < 30)
-			this.outdateFactor = 10;
-		else*/
-			this.outdateFactor = 0.2;
 	}
 
 	/**
@@ -114,7 +137,7 @@ public class Area {
 	 *            The drone which scans the area
 	 */
 	public void seen(Drone drone) {
-		nextTimeSinceLastSeen = 0;
+		storage.setNextTimeSinceLastSeen(index, 0);
 	}
 
 	/**
@@ -123,24 +146,14 @@ public class Area {
 	 * @return the amount of time since last scan
 	 */
 	public double getTimeSinceLastSeen() {
-		return timeSinceLastSeen;
-	}
-
-	/**
-	 * Update the time since last scan at each cycle
-	 */
-	public void cycle() {
-		if(this.type == AreaType.SURVEY) {
-			nextTimeSinceLastSeen++;
-			timeSinceLastSeen = nextTimeSinceLastSeen;
-		}
+		return storage.getTimeSinceLastSeen(index);
 	}
 
 	/**
 	 * Manually set a hgh criticality to request a scan on a specific area
 	 */
 	public void setCritical() {
-		nextTimeSinceLastSeen  = 1000;
+		storage.setNextTimeSinceLastSeen(index, 1000);
 	}
 
 	/**
@@ -149,89 +162,93 @@ public class Area {
 	 * @return the criticality of the area
 	 */
 	public double computeCriticality() {
-		return Math.min(timeSinceLastSeen * outdateFactor / 1000, 1);
+		return storage.computeCriticality(index);
 	}
 
 	/**
-	 * Create the List of the 6 neigbours of the area
+	 * Get the neighbour of this area in a given direction. On a HEX world, the
+	 * diagonal directions give the neighbours of the adjacent rows, and
+	 * {@link #getTop()} and {@link #getBottom()} have no neighbour.
+	 * 
+	 * @param dx
+	 *            the direction on the X axis
+	 * @param dy
+	 *            the direction on the Y axis
+	 * @return the area, or null if there is no neighbour in this direction
+	 * @see NeighbourGraph#getNeighbour(int, int, int, int)
 	 */
-	public void setNeighbours(Area[][] areas) {
-		if(x > 0 && y >0) {
-			this.topLeft = areas[y-1][x-1];
-			this.neighbours.add(this.topLeft);
-		}
-		if(x+1 < areas[0].length) {
-			if(y > 0) {
-				this.topRight = areas[y-1][x+1];
-				this.neighbours.add(this.topRight);
-			}
-			this.right = areas[y][x+1];
-			this.neighbours.add(this.right);
-			if(y+1 < areas.length) {
-				this.bottomRight = areas[y+1][x+1];
-				this.neighbours.add(this.bottomRight);
-			}
-		}
-		if(x > 0 && y+1 < areas.length ) {
-			this.bottomLeft = areas[y+1][x-1];
-			this.neighbours.add(this.bottomLeft);
-			this.left = areas[y][x-1];
-			this.neighbours.add(this.left);
-		}
-		if(y+1 < areas.length) {
-			this.bottom = areas[y+1][x];
-			this.neighbours.add(this.bottom);
-		}
-		if(y-1 > 0) {
-			this.top = areas[y-1][x];
-			this.neighbours.add(this.top);
-		}
-
-
+	private Area relative(int dx, int dy) {
+		NeighbourGraph graph = storage.getNeighbourGraph();
+		return graph == null ? null : graph.getNeighbour(x, y, dx, dy);
 	}
 
 	public Area getTopLeft() {
-		return topLeft;
+		return relative(-1, -1);
 	}
 
 	public Area getTopRight() {
-		return topRight;
+		return relative(1, -1);
 	}
 
 	public Area getRight() {
-		return right;
+		return relative(1, 0);
 	}
 
 	public Area getBottomRight() {
-		return bottomRight;
+		return relative(1, 1);
 	}
 
 	public Area getBottomLeft() {
-		return bottomLeft;
+		return relative(-1, 1);
 	}
 
 	public Area getLeft() {
-		return left;
+		return relative(-1, 0);
 	}
 
 	public Area getTop() {
-		return top;
+		return relative(0, -1);
 	}
 
 	public Area getBottom() {
-		return bottom;
+		return relative(0, 1);
 	}
 
 	public AreaType getType() {
-		return type;
+		return storage.getType(index);
 	}
 
 	public void setType(AreaType type) {
-		this.type = type;
+		storage.setType(index, type);
+	}
+
+	public double getOutdateFactor() {
+		return storage.getOutdateFactor(index);
+	}
+
+	/**
+	 * Getter for the index of the area in the world storage
+	 * 
+	 * @return the index of the area
+	 */
+	public int getIndex() {
+		return index;
 	}
 	
+	/**
+	 * Get the neighbours of the area in the graph of the world. The view is
+	 * created once and then shared by all the calls.
+	 * 
+	 * @return a read-only view on the neighbours
+	 */
 	public List<Area> getNeighbours(){
-		return this.neighbours;
+		if (neighbours == null) {
+			NeighbourGraph graph = storage.getNeighbourGraph();
+			if (graph == null)
+				return Collections.emptyList();
+			neighbours = graph.getNeighbours(index);
+		}
+		return neighbours;
 	}
 
 	@Override
@@ -264,7 +281,18 @@ public class Area {
 	}
 
 	public boolean isAllowed() {
-		return this.type != AreaType.FORBIDDEN && this.type != AreaType.GEOFENCEE;
+		return storage.isAllowed(index);
+	}
+
+	/**
+	 * Check if the drones are allowed in the areas of a type
+	 * 
+	 * @param type
+	 *            the type
+	 * @return true if the type is neither FORBIDDEN nor GEOFENCEE
+	 */
+	public static boolean isAllowed(AreaType type) {
+		return type != AreaType.FORBIDDEN && type != AreaType.GEOFENCEE;
 	}
 
 
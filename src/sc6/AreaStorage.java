@@ -0,0 +1,564 @@
+package sc6;
+
+import java.util.Arrays;
+
+import sc6.Area.AreaType;
+
+/**
+ * Primitive backed storage of the state of every area of the world. Areas are
+ * stored row by row, the area at (x, y) being at index y * width + x. The
+ * {@link Area} objects are only views on this storage.
+ *
+ */
+public class AreaStorage {
+	/**
+	 * Listener informed of the changes of type of the areas
+	 *
+	 */
+	public interface TypeListener {
+		/**
+		 * Called once the type of an area has changed
+		 *
+		 * @param index
+		 *            the index of the area
+		 * @param previous
+		 *            the previous type
+		 * @param type
+		 *            the new type
+		 */
+		void typeChanged(int index, AreaType previous, AreaType type);
+	}
+
+	/**
+	 * Cached values of the area types, indexed by ordinal
+	 */
+	private static final AreaType[] TYPES = AreaType.values();
+	/**
+	 * Ordinal of the SURVEY type
+	 */
+	private static final byte SURVEY = (byte) AreaType.SURVEY.ordinal();
+
+	/**
+	 * Number of areas in width
+	 */
+	private final int width;
+	/**
+	 * Number of areas in height
+	 */
+	private final int height;
+	/**
+	 * Number of cycles elapsed since the creation of the storage
+	 */
+	private int cycle;
+	/**
+	 * For SURVEY areas, the cycle at which the time since last scan was zero,
+	 * as it will be applied at the next cycle. For the other areas, which do
+	 * not age, the next time since last scan itself.
+	 */
+	private final int[] lastSeen;
+	/**
+	 * For SURVEY areas, the value of {@link #lastSeen} before its last update
+	 * if this update happened during the current cycle. For the other areas,
+	 * the time since last scan itself.
+	 */
+	private final int[] previousLastSeen;
+	/**
+	 * Cycle at which {@link #lastSeen} was last updated, -1 if it never was so
+	 * that the updates of the first cycle are recorded too
+	 */
+	private final int[] lastSeenUpdates;
+	/**
+	 * Ordinal of the type of each area
+	 */
+	private final byte[] types;
+	/**
+	 * Importance of each area
+	 */
+	private final float[] outdateFactors;
+	/**
+	 * Incremental statistics on the criticalities of the areas
+	 */
+	private final CriticalityAggregator criticalities;
+	/**
+	 * Index of the areas by type
+	 */
+	private final AreaTypeIndex typeIndex;
+	/**
+	 * Adjacency of the areas
+	 */
+	private NeighbourGraph neighbourGraph;
+	/**
+	 * Listeners of the changes of type
+	 */
+	private TypeListener[] typeListeners = new TypeListener[0];
+	/**
+	 * Execution of the passes over all the areas
+	 */
+	private volatile GridSweep sweep = GridSweep.getDefault();
+	/**
+	 * Areas whose drawn state has changed since the last call to
+	 * {@link #drainChanges(int[])}, possibly several times, null until the
+	 * first call
+	 */
+	private int[] changes;
+	/**
+	 * Number of areas in {@link #changes}
+	 */
+	private int changeCount;
+	/**
+	 * Whether more areas have changed than {@link #changes} can hold, so all
+	 * of them must be considered as changed
+	 */
+	private boolean allChanged = true;
+	/**
+	 * Areas seen during the current cycle, whose time since last scan changes
+	 * at the next cycle, null until the first call to
+	 * {@link #drainChanges(int[])}
+	 */
+	private int[] seen;
+	/**
+	 * Number of areas in {@link #seen}
+	 */
+	private int seenCount;
+
+	/**
+	 * Constructor of the storage
+	 *
+	 * @param width
+	 *            Number of areas in width
+	 * @param height
+	 *            Number of areas in height
+	 */
+	public AreaStorage(int width, int height) {
+		this.width = width;
+		this.height = height;
+		int size = width * height;
+		this.lastSeen = new int[size];
+		this.previousLastSeen = new int[size];
+		this.lastSeenUpdates = new int[size];
+		Arrays.fill(lastSeenUpdates, -1);
+		this.types = new byte[size];
+		this.outdateFactors = new float[size];
+		this.criticalities = new CriticalityAggregator(this);
+		this.typeIndex = new AreaTypeIndex(size);
+	}
+
+	/**
+	 * Getter for the number of areas in width
+	 *
+	 * @return the width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Getter for the number of areas in height
+	 *
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Getter for the number of areas
+	 *
+	 * @return the number of areas
+	 */
+	public int size() {
+		return types.length;
+	}
+
+	/**
+	 * Compute the index of an area
+	 *
+	 * @param x
+	 *            X coordinate
+	 * @param y
+	 *            Y coordinate
+	 * @return the index of the area in the storage
+	 */
+	public int indexOf(int x, int y) {
+		return y * width + x;
+	}
+
+	/**
+	 * Make every SURVEY area age by one cycle. The time since last scan is
+	 * computed on demand from the cycle at which the area was last seen, so no
+	 * per area work is needed.
+	 */
+	public synchronized void cycle() {
+		cycle++;
+		criticalities.cycle();
+		for (int i = 0; i < seenCount; i++)
+			journal(seen[i]);
+		seenCount = 0;
+	}
+
+	/**
+	 * Getter for the number of cycles elapsed
+	 *
+	 * @return the current cycle
+	 */
+	public int getCycle() {
+		return cycle;
+	}
+
+	/**
+	 * Getter for the incremental statistics on the criticalities
+	 *
+	 * @return the criticality aggregator
+	 */
+	public CriticalityAggregator getCriticalities() {
+		return criticalities;
+	}
+
+	/**
+	 * Getter for the index of the areas by type
+	 *
+	 * @return the type index
+	 */
+	public AreaTypeIndex getTypeIndex() {
+		return typeIndex;
+	}
+
+	/**
+	 * Getter for the adjacency of the areas
+	 *
+	 * @return the neighbour graph, or null for a standalone area
+	 */
+	public NeighbourGraph getNeighbourGraph() {
+		return neighbourGraph;
+	}
+
+	public void setNeighbourGraph(NeighbourGraph neighbourGraph) {
+		this.neighbourGraph = neighbourGraph;
+	}
+
+	/**
+	 * Getter for the execution of the passes over all the areas
+	 *
+	 * @return the sweep
+	 */
+	public GridSweep getSweep() {
+		return sweep;
+	}
+
+	public void setSweep(GridSweep sweep) {
+		this.sweep = sweep;
+	}
+
+	/**
+	 * Compute the amount of time since last scan of an area. Updates of the
+	 * next time since last scan are only visible once a cycle has elapsed.
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return the amount of time since last scan
+	 */
+	public int getTimeSinceLastSeen(int index) {
+		if (types[index] != SURVEY)
+			return previousLastSeen[index];
+		if (lastSeenUpdates[index] < cycle)
+			return cycle - lastSeen[index];
+		return cycle - previousLastSeen[index];
+	}
+
+	/**
+	 * Compute the pending time since last scan of an area, before the aging of
+	 * the next cycle
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return the next time since last scan
+	 */
+	public int getNextTimeSinceLastSeen(int index) {
+		if (types[index] != SURVEY)
+			return lastSeen[index];
+		return cycle - lastSeen[index];
+	}
+
+	/**
+	 * Set the time since last scan of an area from the next cycle
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @param value
+	 *            the next time since last scan
+	 */
+	public synchronized void setNextTimeSinceLastSeen(int index, int value) {
+		if (types[index] != SURVEY) {
+			lastSeen[index] = value;
+			return;
+		}
+		if (lastSeenUpdates[index] < cycle) {
+			previousLastSeen[index] = lastSeen[index];
+			lastSeenUpdates[index] = cycle;
+			criticalities.markDirty(index);
+			markSeen(index);
+		}
+		lastSeen[index] = cycle - value;
+	}
+
+	public AreaType getType(int index) {
+		return TYPES[types[index]];
+	}
+
+	/**
+	 * Change the type of an area. As only SURVEY areas age, the encoding of the
+	 * times since last scan is converted when entering or leaving this type.
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @param type
+	 *            the new type
+	 */
+	public synchronized void setType(int index, AreaType type) {
+		AreaType previous = TYPES[types[index]];
+		if (previous == type)
+			return;
+		byte ordinal = (byte) type.ordinal();
+		typeIndex.move(index, types[index], ordinal);
+		if ((types[index] == SURVEY) == (ordinal == SURVEY)) {
+			types[index] = ordinal;
+		} else {
+			criticalities.remove(index);
+			int time = getTimeSinceLastSeen(index);
+			int next = getNextTimeSinceLastSeen(index);
+			types[index] = ordinal;
+			if (ordinal == SURVEY) {
+				previousLastSeen[index] = cycle - time;
+				lastSeen[index] = cycle - next;
+				if (lastSeenUpdates[index] < cycle) {
+					lastSeenUpdates[index] = cycle;
+					criticalities.markDirty(index);
+					markSeen(index);
+				}
+			} else {
+				previousLastSeen[index] = time;
+				lastSeen[index] = next;
+			}
+			criticalities.add(index);
+		}
+		journal(index);
+		for (TypeListener listener : typeListeners)
+			listener.typeChanged(index, previous, type);
+	}
+
+	/**
+	 * Move the areas whose type or time since last scan has changed since the
+	 * previous call, so that the viewers only redraw them. The first call only
+	 * starts recording the changes and reports all the areas as changed.
+	 *
+	 * @param out
+	 *            receives the indices of the changed areas, possibly
+	 *            repeated, of {@link #size()} elements
+	 * @return the number of changed areas, or -1 if all the areas may have
+	 *         changed
+	 */
+	public synchronized int drainChanges(int[] out) {
+		if (changes == null) {
+			changes = new int[16];
+			seen = new int[16];
+		}
+		int count = allChanged ? -1 : changeCount;
+		if (count > 0)
+			System.arraycopy(changes, 0, out, 0, count);
+		changeCount = 0;
+		allChanged = false;
+		return count;
+	}
+
+	/**
+	 * Record that the drawn state of an area has changed, if the changes are
+	 * recorded
+	 *
+	 * @param index
+	 *            the index of the area
+	 */
+	private void journal(int index) {
+		if (changes == null || allChanged)
+			return;
+		if (changeCount == types.length) {
+			allChanged = true;
+			return;
+		}
+		if (changeCount == changes.length)
+			changes = Arrays.copyOf(changes, Math.min(types.length, changes.length * 2));
+		changes[changeCount++] = index;
+	}
+
+	/**
+	 * Record that the time since last scan of an area changes at the next
+	 * cycle, if the changes are recorded. Called at most once per area and per
+	 * cycle.
+	 *
+	 * @param index
+	 *            the index of the area
+	 */
+	private void markSeen(int index) {
+		if (seen == null)
+			return;
+		if (seenCount == seen.length)
+			seen = Arrays.copyOf(seen, Math.min(types.length, seen.length * 2));
+		seen[seenCount++] = index;
+	}
+
+	/**
+	 * Register a listener of the changes of type
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public synchronized void addTypeListener(TypeListener listener) {
+		TypeListener[] grown = Arrays.copyOf(typeListeners, typeListeners.length + 1);
+		grown[typeListeners.length] = listener;
+		typeListeners = grown;
+	}
+
+	/**
+	 * Check if an area is a SURVEY one
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return true if the area is a SURVEY one
+	 */
+	public boolean isSurvey(int index) {
+		return types[index] == SURVEY;
+	}
+
+	/**
+	 * Check if the drones are allowed in an area
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return true if the area is neither FORBIDDEN nor GEOFENCEE
+	 */
+	public boolean isAllowed(int index) {
+		return Area.isAllowed(TYPES[types[index]]);
+	}
+
+	public float getOutdateFactor(int index) {
+		return outdateFactors[index];
+	}
+
+	/**
+	 * Change the outdate factor of an area
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @param outdateFactor
+	 *            the new outdate factor, not negative
+	 */
+	public synchronized void setOutdateFactor(int index, float outdateFactor) {
+		if (!(outdateFactor >= 0))
+			throw new IllegalArgumentException("The outdate factor must not be negative: " + outdateFactor);
+		criticalities.remove(index);
+		outdateFactors[index] = outdateFactor;
+		criticalities.add(index);
+	}
+
+	/**
+	 * Set the types and outdate factors of all the areas from a map. The
+	 * storage must not have cycled yet, so that all the times since last scan
+	 * are still zero.
+	 *
+	 * @param map
+	 *            the map, of the same size as the storage
+	 */
+	public synchronized void load(MapFile map) {
+		if (map.getWidth() != width || map.getHeight() != height)
+			throw new IllegalArgumentException("The map is " + map.getWidth() + "x" + map.getHeight()
+					+ " but the storage is " + width + "x" + height);
+		if (cycle != 0)
+			throw new IllegalStateException("Maps can only be loaded before the first cycle");
+		map.copyTypes(types);
+		map.copyOutdateFactors(outdateFactors);
+		typeIndex.rebuild(types);
+		criticalities.rebuild();
+		allChanged = true;
+	}
+
+	/**
+	 * Copy the type ordinals of all the areas
+	 *
+	 * @param out
+	 *            the destination, of {@link #size()} elements
+	 */
+	public synchronized void copyTypes(byte[] out) {
+		System.arraycopy(types, 0, out, 0, types.length);
+	}
+
+	/**
+	 * Copy the times since last scan of all the areas
+	 *
+	 * @param out
+	 *            the destination, of {@link #size()} elements
+	 */
+	public synchronized void copyTimesSinceLastSeen(int[] out) {
+		sweep.forEach(width, height, i -> out[i] = getTimeSinceLastSeen(i));
+	}
+
+	/**
+	 * Compute the criticalities of all the areas in one pass, to check the
+	 * incremental statistics of the {@link CriticalityAggregator} or to export
+	 * them. The tiles of the sweep are reduced by the {@link CriticalityKernel}
+	 * and merged in tile order.
+	 *
+	 * @param out
+	 *            receives the criticality of each area, or null
+	 * @return the sum and the max of the criticalities
+	 */
+	public synchronized CriticalityKernel.Reduction scanCriticalities(double[] out) {
+		if (out != null && out.length != size())
+			throw new IllegalArgumentException("Expected " + size() + " criticalities");
+		GridSweep sweep = this.sweep;
+		CriticalityKernel.Reduction[] tiles = new CriticalityKernel.Reduction[sweep.tileCount(width, height)];
+		int columns = (width + sweep.getTileWidth() - 1) / sweep.getTileWidth();
+		sweep.forEachTile(width, height, (x0, y0, x1, y1) -> {
+			CriticalityKernel.Reduction reduction = new CriticalityKernel.Reduction();
+			int[] times = new int[x1 - x0];
+			for (int y = y0; y < y1; y++) {
+				int from = y * width + x0;
+				for (int i = 0; i < times.length; i++)
+					times[i] = getTimeSinceLastSeen(from + i);
+				CriticalityKernel.apply(times, 0, outdateFactors, from, from + times.length, out, reduction);
+			}
+			tiles[y0 / sweep.getTileHeight() * columns + x0 / sweep.getTileWidth()] = reduction;
+		});
+		CriticalityKernel.Reduction total = new CriticalityKernel.Reduction();
+		for (CriticalityKernel.Reduction tile : tiles)
+			total.merge(tile);
+		return total;
+	}
+
+	/**
+	 * Compute the sum of the criticalities by scanning all the areas
+	 *
+	 * @return the sum of the criticalities
+	 */
+	public double sumCriticalities() {
+		return scanCriticalities(null).getSum();
+	}
+
+	/**
+	 * Compute the highest criticality by scanning all the areas
+	 *
+	 * @return the highest criticality
+	 */
+	public double maxCriticality() {
+		return scanCriticalities(null).getMax();
+	}
+
+	/**
+	 * Compute the criticality of an area based on the time since last scan
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return the criticality of the area
+	 */
+	public double computeCriticality(int index) {
+		return Math.min((double) getTimeSinceLastSeen(index) * outdateFactors[index] / 1000, 1);
+	}
+}
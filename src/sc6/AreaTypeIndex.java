@@ -0,0 +1,194 @@
+package sc6;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import sc6.Area.AreaType;
+
+/**
+ * Index of the areas of an {@link AreaStorage} by type. For each type, the
+ * index keeps a bitset of the areas, to test them or walk them in row order,
+ * and a dense list of their indexes, to count, pick or visit them without
+ * touching the other areas. The storage updates the index each time the type
+ * of an area changes.
+ *
+ */
+public class AreaTypeIndex {
+	private static final AreaType[] TYPES = AreaType.values();
+
+	/**
+	 * Bitset of the areas of each type, indexed by type ordinal
+	 */
+	private final long[][] bits;
+	/**
+	 * Indexes of the areas of each type, indexed by type ordinal
+	 */
+	private final int[][] cells;
+	/**
+	 * Number of areas of each type
+	 */
+	private final int[] counts;
+	/**
+	 * Position of each area in the list of its type
+	 */
+	private final int[] positions;
+
+	/**
+	 * Constructor of the index of a storage whose areas all have the type of
+	 * ordinal 0
+	 *
+	 * @param size
+	 *            the number of areas
+	 */
+	public AreaTypeIndex(int size) {
+		bits = new long[TYPES.length][(size + 63) >>> 6];
+		cells = new int[TYPES.length][];
+		counts = new int[TYPES.length];
+		positions = new int[size];
+		rebuild(new byte[size]);
+	}
+
+	/**
+	 * Index again all the areas, after the storage has been filled in bulk
+	 *
+	 * @param types
+	 *            the type ordinal of each area
+	 */
+	void rebuild(byte[] types) {
+		Arrays.fill(counts, 0);
+		for (byte type : types)
+			counts[type]++;
+		for (int t = 0; t < TYPES.length; t++) {
+			Arrays.fill(bits[t], 0);
+			cells[t] = new int[Math.max(16, counts[t])];
+			counts[t] = 0;
+		}
+		for (int index = 0; index < types.length; index++) {
+			int type = types[index];
+			bits[type][index >>> 6] |= 1L << index;
+			positions[index] = counts[type];
+			cells[type][counts[type]++] = index;
+		}
+	}
+
+	/**
+	 * Move an area from a type to another
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @param from
+	 *            the ordinal of its previous type
+	 * @param to
+	 *            the ordinal of its new type
+	 */
+	void move(int index, int from, int to) {
+		if (from == to)
+			return;
+		bits[from][index >>> 6] &= ~(1L << index);
+		bits[to][index >>> 6] |= 1L << index;
+		// Replace the area by the last one of its former list
+		int position = positions[index];
+		int last = cells[from][--counts[from]];
+		cells[from][position] = last;
+		positions[last] = position;
+		if (counts[to] == cells[to].length)
+			cells[to] = Arrays.copyOf(cells[to], cells[to].length * 2);
+		positions[index] = counts[to];
+		cells[to][counts[to]++] = index;
+	}
+
+	/**
+	 * Count the areas of a type
+	 *
+	 * @param type
+	 *            the type
+	 * @return the number of areas
+	 */
+	public int count(AreaType type) {
+		return counts[type.ordinal()];
+	}
+
+	/**
+	 * Check if an area has a type
+	 *
+	 * @param type
+	 *            the type
+	 * @param index
+	 *            the index of the area
+	 * @return true if the area has this type
+	 */
+	public boolean contains(AreaType type, int index) {
+		return (bits[type.ordinal()][index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Get an area of a type by its position in the list of this type. The
+	 * order of the list is the order in which the areas took this type, and
+	 * changes when an area leaves the type.
+	 *
+	 * @param type
+	 *            the type
+	 * @param position
+	 *            the position, lower than {@link #count(AreaType)}
+	 * @return the index of the area
+	 */
+	public int get(AreaType type, int position) {
+		if (position < 0 || position >= counts[type.ordinal()])
+			throw new IndexOutOfBoundsException("Position: " + position + ", Count: " + counts[type.ordinal()]);
+		return cells[type.ordinal()][position];
+	}
+
+	/**
+	 * Find the next area of a type in row order
+	 *
+	 * @param type
+	 *            the type
+	 * @param from
+	 *            the first index to check
+	 * @return the index of the area, or -1 if there is none
+	 */
+	public int next(AreaType type, int from) {
+		long[] words = bits[type.ordinal()];
+		if (from < 0)
+			from = 0;
+		int word = from >>> 6;
+		if (word >= words.length)
+			return -1;
+		long current = words[word] & (-1L << from);
+		while (true) {
+			if (current != 0)
+				return (word << 6) + Long.numberOfTrailingZeros(current);
+			if (++word == words.length)
+				return -1;
+			current = words[word];
+		}
+	}
+
+	/**
+	 * Visit the areas of a type, in the order of the list of this type
+	 *
+	 * @param type
+	 *            the type
+	 * @param visitor
+	 *            action applied on the index of each area
+	 */
+	public void forEach(AreaType type, IntConsumer visitor) {
+		int[] list = cells[type.ordinal()];
+		int count = counts[type.ordinal()];
+		for (int i = 0; i < count; i++)
+			visitor.accept(list[i]);
+	}
+
+	/**
+	 * Copy the indexes of the areas of a type
+	 *
+	 * @param type
+	 *            the type
+	 * @return the indexes, in row order
+	 */
+	public int[] toArray(AreaType type) {
+		int[] res = Arrays.copyOf(cells[type.ordinal()], counts[type.ordinal()]);
+		Arrays.sort(res);
+		return res;
+	}
+}
@@ -0,0 +1,341 @@
+package sc6;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fr.irit.smac.lxplot.LxPlot;
+import fr.irit.smac.lxplot.commons.ChartType;
+import fr.irit.smac.lxplot.interfaces.ILxPlotChart;
+
+/**
+ * Buffer between the simulation and an LxPlot chart. The simulation adds its
+ * samples to primitive arrays, and a daemon thread flushes them to the chart
+ * at a fixed rate. When more samples than the budget of a flush have been
+ * added since the previous one, they are split in buckets and only the
+ * minimum and the maximum of each bucket are drawn, so that the spikes stay
+ * visible.
+ *
+ * The latest samples, up to a capacity, are kept at full resolution for the
+ * export in a ring of chunks, and the chart only keeps its latest points, so
+ * that neither grows during a long session. Samples must be added by a single
+ * thread, usually the one running the cycles.
+ *
+ */
+public class ChartFeed {
+	/**
+	 * Default number of flushes per second
+	 */
+	public static final int DEFAULT_RATE = 10;
+	/**
+	 * Default number of buckets drawn per series and per flush
+	 */
+	public static final int DEFAULT_BUCKETS = 50;
+	/**
+	 * Default number of samples kept per series
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 18;
+	/**
+	 * Default number of points kept per series by the chart
+	 */
+	public static final int DEFAULT_CHART_POINTS = 10000;
+	/**
+	 * Number of samples of a chunk, log2
+	 */
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	/**
+	 * Name of the chart
+	 */
+	private final String chartName;
+	private final Series[] series;
+	/**
+	 * Number of buckets drawn per series and per flush
+	 */
+	private final int buckets;
+	/**
+	 * Number of samples kept per series
+	 */
+	private final int capacity;
+	/**
+	 * Number of points kept per series by the chart
+	 */
+	private final int chartPoints;
+	/**
+	 * The chart, looked up on the first flush
+	 */
+	private ILxPlotChart chart;
+	/**
+	 * Thread of the flushes, null if it is not started
+	 */
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * Constructor keeping the default numbers of samples and of chart points
+	 *
+	 * @param chartName
+	 *            Name of the LxPlot chart
+	 * @param buckets
+	 *            Number of buckets drawn per series and per flush
+	 * @param seriesNames
+	 *            Names of the series of the chart
+	 */
+	public ChartFeed(String chartName, int buckets, String... seriesNames) {
+		this(chartName, buckets, DEFAULT_CAPACITY, DEFAULT_CHART_POINTS, seriesNames);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param chartName
+	 *            Name of the LxPlot chart
+	 * @param buckets
+	 *            Number of buckets drawn per series and per flush
+	 * @param capacity
+	 *            Number of samples kept per series
+	 * @param chartPoints
+	 *            Number of points kept per series by the chart
+	 * @param seriesNames
+	 *            Names of the series of the chart
+	 */
+	public ChartFeed(String chartName, int buckets, int capacity, int chartPoints, String... seriesNames) {
+		if (buckets <= 0)
+			throw new IllegalArgumentException("The number of buckets must be positive: " + buckets);
+		if (capacity <= 0)
+			throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+		if (chartPoints <= 0)
+			throw new IllegalArgumentException("The number of chart points must be positive: " + chartPoints);
+		this.chartName = chartName;
+		this.buckets = buckets;
+		this.capacity = capacity;
+		this.chartPoints = chartPoints;
+		// One more chunk than the capacity needs, for the chunk being written
+		int chunks = (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE + 1;
+		this.series = new Series[seriesNames.length];
+		for (int i = 0; i < seriesNames.length; i++)
+			series[i] = new Series(seriesNames[i], chunks);
+	}
+
+	/**
+	 * Add a sample to a series
+	 *
+	 * @param seriesIndex
+	 *            the index of the series, in the order of the constructor
+	 * @param x
+	 *            the abscissa, usually the cycle
+	 * @param y
+	 *            the value
+	 */
+	public void add(int seriesIndex, double x, double y) {
+		series[seriesIndex].add(x, y);
+	}
+
+	/**
+	 * Getter for the number of samples added to a series, including the ones
+	 * not kept anymore
+	 *
+	 * @param seriesIndex
+	 *            the index of the series
+	 * @return the number of samples
+	 */
+	public long size(int seriesIndex) {
+		return series[seriesIndex].count;
+	}
+
+	/**
+	 * Getter for the index of the oldest sample kept in a series. A sample
+	 * stays readable at least until the capacity of samples have been added
+	 * after it.
+	 *
+	 * @param seriesIndex
+	 *            the index of the series
+	 * @return the index of the oldest sample
+	 */
+	public long getFirst(int seriesIndex) {
+		return first(series[seriesIndex].count);
+	}
+
+	/**
+	 * Get the abscissa of a sample
+	 *
+	 * @param seriesIndex
+	 *            the index of the series
+	 * @param index
+	 *            the index of the sample, between {@link #getFirst(int)} and
+	 *            {@link #size(int)}
+	 * @return the abscissa
+	 */
+	public double getX(int seriesIndex, long index) {
+		return series[seriesIndex].x(index);
+	}
+
+	/**
+	 * Get the value of a sample
+	 *
+	 * @param seriesIndex
+	 *            the index of the series
+	 * @param index
+	 *            the index of the sample, between {@link #getFirst(int)} and
+	 *            {@link #size(int)}
+	 * @return the value
+	 */
+	public double getY(int seriesIndex, long index) {
+		return series[seriesIndex].y(index);
+	}
+
+	/**
+	 * Get the index of the oldest sample kept
+	 *
+	 * @param count
+	 *            the number of samples added
+	 * @return the index of the oldest sample
+	 */
+	private long first(long count) {
+		return Math.max(0, count - capacity);
+	}
+
+	/**
+	 * Start flushing the samples to the chart, from a daemon thread
+	 *
+	 * @param rate
+	 *            the number of flushes per second
+	 */
+	public synchronized void start(int rate) {
+		if (flusher != null)
+			return;
+		flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "ChartFeed " + chartName);
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, 1000000 / rate);
+		flusher.scheduleAtFixedRate(this::flush, period, period, TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * Stop the flushes, after drawing the last samples
+	 */
+	public synchronized void stop() {
+		if (flusher == null)
+			return;
+		flusher.shutdownNow();
+		flusher = null;
+		flush();
+	}
+
+	/**
+	 * Draw the samples added since the previous flush
+	 */
+	public synchronized void flush() {
+		for (Series line : series) {
+			long count = line.count;
+			long from = Math.max(line.flushed, first(count));
+			if (count == from)
+				continue;
+			if (chart == null)
+				chart = LxPlot.getChart(chartName, ChartType.LINE, chartPoints);
+			if (count - from <= 2 * buckets) {
+				for (long i = from; i < count; i++)
+					chart.add(line.name, line.x(i), line.y(i));
+			} else {
+				for (int b = 0; b < buckets; b++) {
+					long start = from + (count - from) * b / buckets;
+					long end = from + (count - from) * (b + 1) / buckets;
+					long min = start;
+					long max = start;
+					for (long i = start + 1; i < end; i++) {
+						double y = line.y(i);
+						if (y < line.y(min))
+							min = i;
+						if (y > line.y(max))
+							max = i;
+					}
+					// Keep the order of the abscissas
+					chart.add(line.name, line.x(Math.min(min, max)), line.y(Math.min(min, max)));
+					if (min != max)
+						chart.add(line.name, line.x(Math.max(min, max)), line.y(Math.max(min, max)));
+				}
+			}
+			line.flushed = count;
+		}
+	}
+
+	/**
+	 * Write the samples kept to a CSV file, one row per sample
+	 *
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void export(Path file) throws IOException {
+		try (PrintWriter writer = new PrintWriter(
+				new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8)))) {
+			writer.println("series,x,y");
+			for (Series line : series) {
+				long count = line.count;
+				for (long i = first(count); i < count; i++)
+					writer.printf(Locale.ROOT, "%s,%s,%s%n", line.name, Double.toString(line.x(i)),
+							Double.toString(line.y(i)));
+			}
+		}
+	}
+
+	/**
+	 * Latest samples of a series, stored in a ring of chunks so that growing
+	 * never copies them and older chunks are reused
+	 *
+	 */
+	private static class Series {
+		private final String name;
+		/**
+		 * Abscissas and values, interleaved, by chunk. A chunk is created
+		 * before the count covering it is published.
+		 */
+		private final double[][] chunks;
+		/**
+		 * Number of samples added, published after the samples themselves
+		 */
+		private volatile long count;
+		/**
+		 * Number of samples already drawn, only used by the flushes
+		 */
+		private long flushed;
+
+		private Series(String name, int chunkCount) {
+			this.name = name;
+			this.chunks = new double[chunkCount][];
+		}
+
+		private void add(double x, double y) {
+			long index = count;
+			int chunk = chunk(index);
+			if (chunks[chunk] == null)
+				chunks[chunk] = new double[2 * CHUNK_SIZE];
+			int offset = 2 * (int) (index & (CHUNK_SIZE - 1));
+			chunks[chunk][offset] = x;
+			chunks[chunk][offset + 1] = y;
+			count = index + 1;
+		}
+
+		private int chunk(long index) {
+			return (int) ((index >>> CHUNK_BITS) % chunks.length);
+		}
+
+		private double x(long index) {
+			return chunks[chunk(index)][2 * (int) (index & (CHUNK_SIZE - 1))];
+		}
+
+		private double y(long index) {
+			return chunks[chunk(index)][2 * (int) (index & (CHUNK_SIZE - 1)) + 1];
+		}
+	}
+}
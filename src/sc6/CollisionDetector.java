@@ -0,0 +1,130 @@
+package sc6;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import fr.irit.smac.amak.Agent;
+
+/**
+ * Detection of the drones sharing the same area. The drones are put in a
+ * spatial hash keyed by the index of their area, so only the drones of a same
+ * bucket are compared and a detection costs roughly O(drones). The arrays are
+ * reused from one detection to the next.
+ *
+ */
+public class CollisionDetector {
+	/**
+	 * Marker of an empty bucket or of the end of a chain
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * Area index of each bucket
+	 */
+	private int[] keys = new int[32];
+	/**
+	 * First drone of each bucket
+	 */
+	private int[] heads = new int[32];
+	/**
+	 * Drones of the current detection
+	 */
+	private Drone[] drones = new Drone[16];
+	/**
+	 * Area index of each drone
+	 */
+	private int[] areas = new int[16];
+	/**
+	 * Next drone of the same bucket
+	 */
+	private int[] next = new int[16];
+	/**
+	 * Number of colliding pairs found by the last detection
+	 */
+	private int collisions;
+
+	/**
+	 * Find the drones sharing the same area
+	 *
+	 * @param agents
+	 *            The agents of the AMAS
+	 * @param collision
+	 *            Action applied on each pair of colliding drones
+	 * @return the number of colliding pairs
+	 */
+	public int detect(List<? extends Agent<?, World>> agents, BiConsumer<Drone, Drone> collision) {
+		int count = agents.size();
+		prepare(count);
+		int mask = keys.length - 1;
+		for (int i = 0; i < count; i++) {
+			Drone drone = (Drone) agents.get(i);
+			Area area = drone.getCurrentArea();
+			drones[i] = drone;
+			areas[i] = area == null ? NONE : area.getIndex();
+			next[i] = NONE;
+			if (areas[i] == NONE)
+				continue;
+			int bucket = hash(areas[i]) & mask;
+			while (keys[bucket] != NONE && keys[bucket] != areas[i])
+				bucket = (bucket + 1) & mask;
+			keys[bucket] = areas[i];
+			next[i] = heads[bucket];
+			heads[bucket] = i;
+		}
+		collisions = 0;
+		for (int bucket = 0; bucket < keys.length; bucket++) {
+			for (int i = heads[bucket]; i != NONE; i = next[i]) {
+				for (int j = next[i]; j != NONE; j = next[j]) {
+					collisions++;
+					collision.accept(drones[i], drones[j]);
+				}
+			}
+		}
+		Arrays.fill(drones, 0, count, null);
+		return collisions;
+	}
+
+	/**
+	 * Getter for the number of colliding pairs found by the last detection
+	 *
+	 * @return the number of colliding pairs
+	 */
+	public int getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * Size and clear the arrays for a given number of drones
+	 *
+	 * @param count
+	 *            the number of drones
+	 */
+	private void prepare(int count) {
+		if (drones.length < count) {
+			int capacity = Integer.highestOneBit(count) * 2;
+			drones = new Drone[capacity];
+			areas = new int[capacity];
+			next = new int[capacity];
+		}
+		int buckets = Math.max(32, Integer.highestOneBit(count) * 4);
+		if (keys.length != buckets) {
+			keys = new int[buckets];
+			heads = new int[buckets];
+		}
+		Arrays.fill(keys, NONE);
+		Arrays.fill(heads, NONE);
+	}
+
+	/**
+	 * Spread an area index over the buckets
+	 *
+	 * @param key
+	 *            the area index
+	 * @return the hash
+	 */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,223 @@
+package sc6;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import sc6.Area.AreaType;
+
+/**
+ * Queue of the changes requested by the user interface or by external
+ * controllers, applied by the AMAS at the beginning of its cycles. Any thread
+ * can enqueue commands without locking, and only the thread of the cycles
+ * changes the world and the agents, so the edits never race with the drones.
+ *
+ * The regions of the commands are clipped to the world.
+ *
+ */
+public class CommandQueue {
+	/**
+	 * Default maximum number of commands applied per cycle
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100000;
+
+	/**
+	 * A change applied at the beginning of a cycle
+	 *
+	 */
+	public interface Command {
+		/**
+		 * Apply the change, on the thread of the cycles
+		 *
+		 * @param drAmas
+		 *            the AMAS
+		 */
+		void apply(DrAmas drAmas);
+	}
+
+	private final ConcurrentLinkedQueue<Command> commands = new ConcurrentLinkedQueue<>();
+	/**
+	 * Maximum number of commands applied per cycle, so that a flood of
+	 * commands cannot stall the cycles
+	 */
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+	private final AtomicLong enqueued = new AtomicLong();
+	private final AtomicLong applied = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	/**
+	 * Exception thrown by the last failed command, if any
+	 */
+	private volatile RuntimeException lastFailure;
+
+	/**
+	 * Enqueue a command
+	 *
+	 * @param command
+	 *            the command
+	 */
+	public void enqueue(Command command) {
+		enqueued.incrementAndGet();
+		commands.add(command);
+	}
+
+	/**
+	 * Apply the pending commands, at most the batch size, in their order of
+	 * arrival. A command failing is counted, kept as the last failure and
+	 * skipped, without printing anything on the thread of the cycles.
+	 *
+	 * @param drAmas
+	 *            the AMAS
+	 * @return the number of commands applied
+	 */
+	int drain(DrAmas drAmas) {
+		int count = 0;
+		int limit = batchSize;
+		Command command;
+		while (count < limit && (command = commands.poll()) != null) {
+			count++;
+			try {
+				command.apply(drAmas);
+			} catch (RuntimeException e) {
+				failed.incrementAndGet();
+				lastFailure = e;
+			}
+		}
+		applied.addAndGet(count);
+		return count;
+	}
+
+	/**
+	 * Request a scan of the areas of a rectangle
+	 *
+	 * @param x0
+	 *            first column, included
+	 * @param y0
+	 *            first row, included
+	 * @param x1
+	 *            last column, included
+	 * @param y1
+	 *            last row, included
+	 */
+	public void setCritical(int x0, int y0, int x1, int y1) {
+		enqueue(drAmas -> forEachArea(drAmas, x0, y0, x1, y1, Area::setCritical));
+	}
+
+	/**
+	 * Change the type of the areas of a rectangle
+	 *
+	 * @param x0
+	 *            first column, included
+	 * @param y0
+	 *            first row, included
+	 * @param x1
+	 *            last column, included
+	 * @param y1
+	 *            last row, included
+	 * @param type
+	 *            the new type
+	 */
+	public void setType(int x0, int y0, int x1, int y1, AreaType type) {
+		enqueue(drAmas -> forEachArea(drAmas, x0, y0, x1, y1, area -> area.setType(type)));
+	}
+
+	/**
+	 * Change the outdate factor of the areas of a rectangle
+	 *
+	 * @param x0
+	 *            first column, included
+	 * @param y0
+	 *            first row, included
+	 * @param x1
+	 *            last column, included
+	 * @param y1
+	 *            last row, included
+	 * @param factor
+	 *            the new outdate factor, not negative
+	 */
+	public void setOutdateFactor(int x0, int y0, int x1, int y1, float factor) {
+		if (!(factor >= 0))
+			throw new IllegalArgumentException("The outdate factor must not be negative: " + factor);
+		enqueue(drAmas -> forEachArea(drAmas, x0, y0, x1, y1, 
+				area -> drAmas.getEnvironment().getStorage().setOutdateFactor(area.getIndex(), factor)));
+	}
+
+	/**
+	 * Create a batch of drones
+	 *
+	 * @param count
+	 *            the number of drones
+	 * @param placement
+	 *            the choice of their areas
+	 */
+	public void spawnDrones(int count, DronePlacement placement) {
+		if (count < 0)
+			throw new IllegalArgumentException("The number of drones must not be negative: " + count);
+		enqueue(drAmas -> drAmas.spawnDrones(count, placement));
+	}
+
+	/**
+	 * Destroy a batch of drones picked at random
+	 *
+	 * @param count
+	 *            the number of drones, at most the number of drones alive
+	 */
+	public void despawnDrones(int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("The number of drones must not be negative: " + count);
+		enqueue(drAmas -> drAmas.despawnDrones(count));
+	}
+
+	private static void forEachArea(DrAmas drAmas, int x0, int y0, int x1, int y1, Consumer<Area> action) {
+		World world = drAmas.getEnvironment();
+		for (int y = Math.max(0, y0); y <= Math.min(y1, world.getHeight() - 1); y++)
+			for (int x = Math.max(0, x0); x <= Math.min(x1, world.getWidth() - 1); x++)
+				action.accept(world.getAreaByPosition(x, y));
+	}
+
+	/**
+	 * Getter for the number of commands waiting to be applied
+	 *
+	 * @return the number of pending commands
+	 */
+	public long getPending() {
+		return enqueued.get() - applied.get();
+	}
+
+	/**
+	 * Getter for the number of commands applied since the creation
+	 *
+	 * @return the number of applied commands, failed ones included
+	 */
+	public long getApplied() {
+		return applied.get();
+	}
+
+	/**
+	 * Getter for the number of commands which have thrown an exception
+	 *
+	 * @return the number of failed commands
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Getter for the exception thrown by the last failed command
+	 *
+	 * @return the exception, with its stack trace, or null if no command has
+	 *         failed
+	 */
+	public RuntimeException getLastFailure() {
+		return lastFailure;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+		this.batchSize = batchSize;
+	}
+}
@@ -0,0 +1,520 @@
+package sc6;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import sc6.Area.AreaType;
+
+/**
+ * Incrementally maintained statistics on the criticalities of the areas of an
+ * {@link AreaStorage}. The storage informs the aggregator when an area is
+ * seen, marked critical or changes, and the sum, the max and the count of
+ * areas above a threshold are then read without scanning the areas.
+ *
+ * SURVEY areas sharing the same outdate factor are grouped together. In a
+ * group, the criticality only depends on the age of the area, so the areas are
+ * kept in a wheel indexed by the cycle at which they were last seen. Areas
+ * reaching the age at which their criticality is 1 are moved out of the wheel
+ * once per cycle. The wheel starts small and only grows with the age of its
+ * oldest area, so tiny outdate factors do not allocate their whole saturation
+ * age. Groups left empty are dropped. The criticality of the other areas does
+ * not change over time and is kept in a sorted count map.
+ *
+ */
+public class CriticalityAggregator {
+	/**
+	 * Ordinal of the SURVEY type
+	 */
+	private static final byte SURVEY = (byte) AreaType.SURVEY.ordinal();
+	/**
+	 * Initial number of cycles of the wheel of a group
+	 */
+	private static final int INITIAL_WHEEL_SIZE = 1024;
+
+	/**
+	 * The observed storage
+	 */
+	private final AreaStorage storage;
+	/**
+	 * Last seen cycle registered for each aging area
+	 */
+	private final int[] registeredLastSeen;
+	/**
+	 * Areas whose last seen cycle changes at the next cycle
+	 */
+	private int[] dirty = new int[16];
+	/**
+	 * Number of areas in {@link #dirty}
+	 */
+	private int dirtyCount;
+	/**
+	 * Current cycle of the aggregator
+	 */
+	private int cycle;
+	/**
+	 * Groups of aging areas, one per outdate factor
+	 */
+	private Group[] groups = new Group[0];
+	/**
+	 * Count of non aging areas per criticality
+	 */
+	private final TreeMap<Double, Integer> constants = new TreeMap<>();
+	/**
+	 * Quadtree of the criticalities, to find the most critical areas
+	 */
+	private final CriticalityPyramid pyramid;
+
+	/**
+	 * Constructor of the aggregator. All the areas of the storage are
+	 * initially expected to have a null criticality.
+	 *
+	 * @param storage
+	 *            the observed storage
+	 */
+	public CriticalityAggregator(AreaStorage storage) {
+		this.storage = storage;
+		this.registeredLastSeen = new int[storage.size()];
+		constants.put(0d, storage.size());
+		this.pyramid = new CriticalityPyramid(storage);
+	}
+
+	/**
+	 * Getter for the quadtree of the criticalities
+	 *
+	 * @return the pyramid
+	 */
+	public CriticalityPyramid getPyramid() {
+		return pyramid;
+	}
+
+	/**
+	 * Getter for the sum of the criticalities of all the areas
+	 *
+	 * @return the sum of the criticalities
+	 */
+	public double getSum() {
+		double sum = 0;
+		for (Entry<Double, Integer> entry : constants.entrySet())
+			sum += entry.getKey() * entry.getValue();
+		for (Group group : groups)
+			sum += group.sum();
+		return sum;
+	}
+
+	/**
+	 * Getter for the highest criticality of the areas
+	 *
+	 * @return the highest criticality
+	 */
+	public double getMax() {
+		double max = constants.isEmpty() ? 0 : constants.lastKey();
+		for (Group group : groups)
+			max = Math.max(max, group.max());
+		return max;
+	}
+
+	/**
+	 * Count the areas whose criticality is strictly higher than a threshold
+	 *
+	 * @param threshold
+	 *            the threshold
+	 * @return the number of areas above the threshold
+	 */
+	public int countAbove(double threshold) {
+		int count = 0;
+		for (Integer c : constants.tailMap(threshold, false).values())
+			count += c;
+		for (Group group : groups)
+			count += group.countAbove(threshold);
+		return count;
+	}
+
+	/**
+	 * Inform that the last seen cycle of an area changes at the next cycle.
+	 * Called at most once per area and per cycle by the storage.
+	 *
+	 * @param index
+	 *            the index of the area
+	 */
+	void markDirty(int index) {
+		if (dirtyCount == dirty.length) {
+			int[] grown = new int[dirty.length * 2];
+			System.arraycopy(dirty, 0, grown, 0, dirtyCount);
+			dirty = grown;
+		}
+		dirty[dirtyCount++] = index;
+	}
+
+	/**
+	 * Make the aging areas age by one cycle and apply the pending updates.
+	 * Called by the storage once its own cycle has been incremented.
+	 */
+	void cycle() {
+		for (int i = 0; i < dirtyCount; i++)
+			remove(dirty[i]);
+		for (Group group : groups)
+			group.makeRoom();
+		cycle++;
+		for (Group group : groups)
+			group.saturate(cycle - group.saturationAge);
+		for (int i = 0; i < dirtyCount; i++)
+			add(dirty[i]);
+		dirtyCount = 0;
+		dropEmptyGroups();
+	}
+
+	/**
+	 * Forget the groups which have no area anymore, so that the outdate
+	 * factors set once do not slow down the statistics forever
+	 */
+	private void dropEmptyGroups() {
+		int kept = 0;
+		for (Group group : groups)
+			if (!group.isEmpty())
+				kept++;
+		if (kept == groups.length)
+			return;
+		Group[] remaining = new Group[kept];
+		kept = 0;
+		for (Group group : groups)
+			if (!group.isEmpty())
+				remaining[kept++] = group;
+		groups = remaining;
+	}
+
+	/**
+	 * Register again all the areas, after the storage has been filled in bulk.
+	 * Consecutive areas usually share the same group or the same constant
+	 * criticality, so they are counted together, and the Fenwick trees are
+	 * built once at the end.
+	 */
+	void rebuild() {
+		constants.clear();
+		groups = new Group[0];
+		dirtyCount = 0;
+		Group group = null;
+		double constant = 0;
+		int constantCount = 0;
+		for (int index = 0; index < registeredLastSeen.length; index++) {
+			float factor = storage.getOutdateFactor(index);
+			if (isAging(index, factor)) {
+				if (group == null || group.factor != factor)
+					group = group(factor);
+				int lastSeen = cycle - storage.getTimeSinceLastSeen(index);
+				registeredLastSeen[index] = lastSeen;
+				group.add(lastSeen, false);
+			} else {
+				double criticality = storage.computeCriticality(index);
+				if (constantCount > 0 && criticality != constant) {
+					constants.merge(constant, constantCount, Integer::sum);
+					constantCount = 0;
+				}
+				constant = criticality;
+				constantCount++;
+			}
+		}
+		if (constantCount > 0)
+			constants.merge(constant, constantCount, Integer::sum);
+		for (Group g : groups)
+			g.buildTree();
+		pyramid.rebuild();
+	}
+
+	/**
+	 * Register the current criticality of an area
+	 *
+	 * @param index
+	 *            the index of the area
+	 */
+	void add(int index) {
+		float factor = storage.getOutdateFactor(index);
+		if (isAging(index, factor)) {
+			int lastSeen = cycle - storage.getTimeSinceLastSeen(index);
+			registeredLastSeen[index] = lastSeen;
+			group(factor).add(lastSeen, true);
+		} else {
+			constants.merge(storage.computeCriticality(index), 1, Integer::sum);
+		}
+		pyramid.update(index);
+	}
+
+	/**
+	 * Unregister the criticality of an area, before a change of its type or of
+	 * its outdate factor
+	 *
+	 * @param index
+	 *            the index of the area
+	 */
+	void remove(int index) {
+		float factor = storage.getOutdateFactor(index);
+		if (isAging(index, factor)) {
+			group(factor).remove(registeredLastSeen[index]);
+		} else {
+			Double criticality = storage.computeCriticality(index);
+			int count = constants.get(criticality);
+			if (count == 1)
+				constants.remove(criticality);
+			else
+				constants.put(criticality, count - 1);
+		}
+	}
+
+	/**
+	 * Check if the criticality of an area changes over time
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @param factor
+	 *            the outdate factor of the area
+	 * @return true if the area ages
+	 */
+	private boolean isAging(int index, float factor) {
+		return storage.isSurvey(index) && factor > 0;
+	}
+
+	/**
+	 * Get or create the group of an outdate factor
+	 *
+	 * @param factor
+	 *            the outdate factor
+	 * @return the group
+	 */
+	private Group group(float factor) {
+		for (Group group : groups)
+			if (group.factor == factor)
+				return group;
+		Group[] grown = new Group[groups.length + 1];
+		System.arraycopy(groups, 0, grown, 0, groups.length);
+		grown[groups.length] = new Group(factor);
+		groups = grown;
+		return grown[groups.length - 1];
+	}
+
+	/**
+	 * Aging areas sharing the same outdate factor
+	 *
+	 */
+	private class Group {
+		/**
+		 * The outdate factor of the areas
+		 */
+		private final float factor;
+		/**
+		 * The smallest age at which the criticality is 1
+		 */
+		private final int saturationAge;
+		/**
+		 * Number of areas per last seen cycle modulo the size of the wheel.
+		 * The wheel covers the last seen cycles of all the unsaturated areas,
+		 * and has at most the saturation age as size.
+		 */
+		private int[] counts;
+		/**
+		 * Fenwick tree over {@link #counts}
+		 */
+		private int[] tree;
+		/**
+		 * Number of areas whose criticality is 1
+		 */
+		private int saturated;
+		/**
+		 * Number of areas whose criticality is below 1
+		 */
+		private int unsaturated;
+		/**
+		 * Sum of the last seen cycles of the unsaturated areas
+		 */
+		private long lastSeenSum;
+		/**
+		 * Lower bound of the oldest last seen cycle of the unsaturated areas
+		 */
+		private int oldest = Integer.MAX_VALUE;
+
+		private Group(float factor) {
+			this.factor = factor;
+			long age = Math.max(1, (long) Math.ceil(1000 / (double) factor));
+			while (age > 1 && criticality(age - 1) >= 1)
+				age--;
+			while (age < Integer.MAX_VALUE && criticality(age) < 1)
+				age++;
+			// Beyond, the areas never saturate before the cycles overflow
+			this.saturationAge = (int) Math.min(age, Integer.MAX_VALUE);
+			int size = Math.min(saturationAge, INITIAL_WHEEL_SIZE);
+			this.counts = new int[size];
+			this.tree = new int[size + 1];
+		}
+
+		private boolean isEmpty() {
+			return saturated == 0 && unsaturated == 0;
+		}
+
+		/**
+		 * Grow the wheel if the areas last seen at its oldest cycle are not
+		 * saturated at the next cycle, before the cycle is incremented
+		 */
+		private void makeRoom() {
+			int size = counts.length;
+			if (size < saturationAge && counts[Math.floorMod(cycle - size + 1, size)] > 0)
+				grow(size + 1);
+		}
+
+		/**
+		 * Grow the wheel so that it covers a number of cycles, keeping the
+		 * areas of the cycles it covers
+		 *
+		 * @param minimumSize
+		 *            the number of cycles to cover
+		 */
+		private void grow(int minimumSize) {
+			int size = counts.length;
+			int newSize = size;
+			while (newSize < minimumSize)
+				newSize = (int) Math.min(2L * newSize, saturationAge);
+			int[] grown = new int[newSize];
+			for (int lastSeen = cycle - size + 1; lastSeen <= cycle; lastSeen++)
+				grown[Math.floorMod(lastSeen, newSize)] = counts[Math.floorMod(lastSeen, size)];
+			counts = grown;
+			tree = new int[newSize + 1];
+			buildTree();
+		}
+
+		/**
+		 * Compute the criticality of an area of the group, as done by the
+		 * storage
+		 *
+		 * @param age
+		 *            the time since last scan
+		 * @return the criticality
+		 */
+		private double criticality(long age) {
+			return Math.min((double) age * factor / 1000, 1);
+		}
+
+		private void add(int lastSeen, boolean updateTree) {
+			if (cycle - lastSeen >= saturationAge) {
+				saturated++;
+				return;
+			}
+			if (cycle - lastSeen >= counts.length)
+				grow(cycle - lastSeen + 1);
+			if (updateTree)
+				update(lastSeen, 1);
+			else
+				counts[Math.floorMod(lastSeen, counts.length)]++;
+			unsaturated++;
+			lastSeenSum += lastSeen;
+			if (lastSeen < oldest)
+				oldest = lastSeen;
+		}
+
+		private void remove(int lastSeen) {
+			if (cycle - lastSeen >= saturationAge) {
+				saturated--;
+				return;
+			}
+			update(lastSeen, -1);
+			unsaturated--;
+			lastSeenSum -= lastSeen;
+		}
+
+		/**
+		 * Move the areas last seen at a given cycle to the saturated ones
+		 *
+		 * @param lastSeen
+		 *            the last seen cycle reaching the saturation age
+		 */
+		private void saturate(int lastSeen) {
+			// A smaller wheel has no area old enough
+			if (counts.length < saturationAge)
+				return;
+			int count = counts[Math.floorMod(lastSeen, saturationAge)];
+			if (count == 0)
+				return;
+			update(lastSeen, -count);
+			unsaturated -= count;
+			lastSeenSum -= (long) count * lastSeen;
+			saturated += count;
+		}
+
+		private double sum() {
+			long ageSum = (long) unsaturated * cycle - lastSeenSum;
+			return (double) ageSum * factor / 1000 + saturated;
+		}
+
+		private double max() {
+			if (saturated > 0)
+				return 1;
+			if (unsaturated == 0)
+				return 0;
+			int first = cycle - counts.length + 1;
+			if (oldest < first)
+				oldest = first;
+			while (counts[Math.floorMod(oldest, counts.length)] == 0)
+				oldest++;
+			return criticality(cycle - oldest);
+		}
+
+		private int countAbove(double threshold) {
+			if (threshold >= 1)
+				return 0;
+			// Smallest unsaturated age whose criticality is above the threshold
+			int low = 0;
+			int high = saturationAge;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (criticality(middle) > threshold)
+					high = middle;
+				else
+					low = middle + 1;
+			}
+			return saturated + count(cycle - counts.length + 1, cycle - low);
+		}
+
+		/**
+		 * Count the unsaturated areas last seen between two cycles
+		 *
+		 * @param from
+		 *            the first cycle, included
+		 * @param to
+		 *            the last cycle, included
+		 * @return the number of areas
+		 */
+		private int count(int from, int to) {
+			if (from > to)
+				return 0;
+			int start = Math.floorMod(from, counts.length);
+			int end = Math.floorMod(to, counts.length);
+			if (start <= end)
+				return prefix(end + 1) - prefix(start);
+			return prefix(counts.length) - prefix(start) + prefix(end + 1);
+		}
+
+		private void update(int lastSeen, int delta) {
+			int position = Math.floorMod(lastSeen, counts.length);
+			counts[position] += delta;
+			for (int i = position + 1; i <= counts.length; i += i & -i)
+				tree[i] += delta;
+		}
+
+		/**
+		 * Build the Fenwick tree from the counts in linear time
+		 */
+		private void buildTree() {
+			Arrays.fill(tree, 0);
+			for (int i = 1; i <= counts.length; i++) {
+				tree[i] += counts[i - 1];
+				int parent = i + (i & -i);
+				if (parent <= counts.length)
+					tree[parent] += tree[i];
+			}
+		}
+
+		private int prefix(int length) {
+			int sum = 0;
+			for (int i = length; i > 0; i -= i & -i)
+				sum += tree[i];
+			return sum;
+		}
+	}
+}
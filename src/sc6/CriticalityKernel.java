@@ -0,0 +1,125 @@
+package sc6;
+
+/**
+ * Bulk computation of the criticalities, min(time * factor / 1000, 1), over
+ * primitive arrays of times since last scan and outdate factors. A single pass
+ * gives the sum, the max and optionally the criticality of each area.
+ *
+ * The loop is unrolled by four with independent accumulators and a branch free
+ * clamp, so that it is bound by the memory bandwidth rather than by the
+ * latency of the additions.
+ *
+ */
+public class CriticalityKernel {
+	private CriticalityKernel() {
+	}
+
+	/**
+	 * Sum and max of criticalities, accumulated over several passes
+	 *
+	 */
+	public static class Reduction {
+		private double sum;
+		private double max = Double.NEGATIVE_INFINITY;
+		private int count;
+
+		/**
+		 * Add the result of another reduction, the order of the merges fixing
+		 * the rounding of the sum
+		 *
+		 * @param other
+		 *            the other reduction
+		 */
+		public void merge(Reduction other) {
+			sum += other.sum;
+			max = Math.max(max, other.max);
+			count += other.count;
+		}
+
+		public double getSum() {
+			return sum;
+		}
+
+		/**
+		 * Getter for the highest criticality
+		 *
+		 * @return the highest criticality, or 0 if no area has been reduced
+		 */
+		public double getMax() {
+			return count == 0 ? 0 : max;
+		}
+
+		/**
+		 * Getter for the number of areas reduced
+		 *
+		 * @return the number of areas
+		 */
+		public int getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Compute the criticalities of a range of areas
+	 *
+	 * @param times
+	 *            the times since last scan
+	 * @param timesFrom
+	 *            position in times of the time of the first area
+	 * @param factors
+	 *            the outdate factors, indexed by area
+	 * @param from
+	 *            index of the first area, included
+	 * @param to
+	 *            index of the last area, excluded
+	 * @param out
+	 *            receives the criticalities, indexed by area, or null
+	 * @param reduction
+	 *            receives the sum and the max of the criticalities
+	 */
+	public static void apply(int[] times, int timesFrom, float[] factors, int from, int to, double[] out,
+			Reduction reduction) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		double m0 = Double.NEGATIVE_INFINITY, m1 = m0, m2 = m0, m3 = m0;
+		int shift = timesFrom - from;
+		int i = from;
+		for (; i + 3 < to; i += 4) {
+			double c0 = clamp((double) times[i + shift] * factors[i] / 1000);
+			double c1 = clamp((double) times[i + shift + 1] * factors[i + 1] / 1000);
+			double c2 = clamp((double) times[i + shift + 2] * factors[i + 2] / 1000);
+			double c3 = clamp((double) times[i + shift + 3] * factors[i + 3] / 1000);
+			if (out != null) {
+				out[i] = c0;
+				out[i + 1] = c1;
+				out[i + 2] = c2;
+				out[i + 3] = c3;
+			}
+			s0 += c0;
+			s1 += c1;
+			s2 += c2;
+			s3 += c3;
+			m0 = c0 > m0 ? c0 : m0;
+			m1 = c1 > m1 ? c1 : m1;
+			m2 = c2 > m2 ? c2 : m2;
+			m3 = c3 > m3 ? c3 : m3;
+		}
+		for (; i < to; i++) {
+			double c = clamp((double) times[i + shift] * factors[i] / 1000);
+			if (out != null)
+				out[i] = c;
+			s0 += c;
+			m0 = c > m0 ? c : m0;
+		}
+		reduction.sum += (s0 + s1) + (s2 + s3);
+		reduction.max = Math.max(reduction.max, Math.max(Math.max(m0, m1), Math.max(m2, m3)));
+		reduction.count += Math.max(0, to - from);
+	}
+
+	/**
+	 * Same as Math.min(criticality, 1), without its checks of the signed zeros
+	 * and of NaN, which is kept
+	 */
+	private static double clamp(double criticality) {
+		return criticality > 1 ? 1 : criticality;
+	}
+}
@@ -0,0 +1,333 @@
+package sc6;
+
+import java.util.Arrays;
+
+/**
+ * Quadtree of the criticalities of the areas of an {@link AreaStorage}, used
+ * to find the most critical areas without computing the criticality of every
+ * area.
+ *
+ * Each node of level l covers a block of 2^l x 2^l areas. As the criticality
+ * of the SURVEY areas grows with time, a node does not store a criticality but
+ * what bounds it at any cycle: the oldest last seen cycle and the highest
+ * outdate factor of its aging areas, and the highest criticality of its other
+ * areas. The searches explore the nodes by decreasing bound and only compute
+ * the exact criticality of the areas they reach.
+ *
+ * The pyramid is updated by the {@link CriticalityAggregator} along the path
+ * to the root each time the registered criticality of an area changes.
+ *
+ */
+public class CriticalityPyramid {
+	/**
+	 * Last seen cycle of the nodes without any aging area
+	 */
+	private static final int NO_STAMP = Integer.MAX_VALUE;
+
+	/**
+	 * The areas
+	 */
+	private final AreaStorage storage;
+	/**
+	 * Number of areas in width
+	 */
+	private final int width;
+	/**
+	 * Number of areas in height
+	 */
+	private final int height;
+	/**
+	 * Number of nodes in width of each level, level 0 being the areas
+	 */
+	private final int[] widths;
+	/**
+	 * Number of nodes in height of each level
+	 */
+	private final int[] heights;
+	/**
+	 * Oldest last seen cycle of the aging areas of each node, by level
+	 */
+	private final int[][] minStamps;
+	/**
+	 * Highest outdate factor of the aging areas of each node, by level
+	 */
+	private final float[][] maxFactors;
+	/**
+	 * Highest criticality of the non aging areas of each node, by level
+	 */
+	private final double[][] frozenMaxes;
+
+	/**
+	 * Bounds of the nodes to explore, as a max heap
+	 */
+	private double[] heapBounds = new double[64];
+	/**
+	 * Level and index of the nodes to explore
+	 */
+	private long[] heapNodes = new long[64];
+	private int heapSize;
+
+	/**
+	 * Constructor of the pyramid of a storage whose areas all have a null
+	 * criticality
+	 *
+	 * @param storage
+	 *            the areas
+	 */
+	public CriticalityPyramid(AreaStorage storage) {
+		this.storage = storage;
+		this.width = storage.getWidth();
+		this.height = storage.getHeight();
+		// The top level has a single node
+		int top = 1;
+		while ((1 << top) < Math.max(width, height))
+			top++;
+		int levels = top + 1;
+		widths = new int[levels];
+		heights = new int[levels];
+		minStamps = new int[levels][];
+		maxFactors = new float[levels][];
+		frozenMaxes = new double[levels][];
+		for (int l = 0; l < levels; l++) {
+			widths[l] = Math.max(1, (width + (1 << l) - 1) >> l);
+			heights[l] = Math.max(1, (height + (1 << l) - 1) >> l);
+			if (l == 0)
+				continue;
+			minStamps[l] = new int[widths[l] * heights[l]];
+			maxFactors[l] = new float[widths[l] * heights[l]];
+			frozenMaxes[l] = new double[widths[l] * heights[l]];
+			Arrays.fill(minStamps[l], NO_STAMP);
+		}
+	}
+
+	/**
+	 * Update the nodes covering an area whose criticality has changed
+	 *
+	 * @param index
+	 *            the index of the area
+	 */
+	synchronized void update(int index) {
+		int x = index % width >> 1;
+		int y = index / width >> 1;
+		summarizeAreas(x, y);
+		for (int l = 2; l < widths.length; l++) {
+			x >>= 1;
+			y >>= 1;
+			summarizeNodes(l, x, y);
+		}
+	}
+
+	/**
+	 * Update all the nodes, after the storage has been filled in bulk
+	 */
+	synchronized void rebuild() {
+		// The nodes of a level only depend on the level below
+		GridSweep sweep = storage.getSweep();
+		sweep.forEachTile(widths[1], heights[1], (x0, y0, x1, y1) -> {
+			for (int y = y0; y < y1; y++)
+				for (int x = x0; x < x1; x++)
+					summarizeAreas(x, y);
+		});
+		for (int l = 2; l < widths.length; l++) {
+			int level = l;
+			sweep.forEachTile(widths[l], heights[l], (x0, y0, x1, y1) -> {
+				for (int y = y0; y < y1; y++)
+					for (int x = x0; x < x1; x++)
+						summarizeNodes(level, x, y);
+			});
+		}
+	}
+
+	private void summarizeAreas(int x, int y) {
+		int minStamp = NO_STAMP;
+		float maxFactor = 0;
+		double frozenMax = 0;
+		int cycle = storage.getCycle();
+		for (int ay = 2 * y; ay < Math.min(2 * y + 2, height); ay++) {
+			for (int ax = 2 * x; ax < Math.min(2 * x + 2, width); ax++) {
+				int index = ay * width + ax;
+				float factor = storage.getOutdateFactor(index);
+				if (storage.isSurvey(index) && factor > 0) {
+					minStamp = Math.min(minStamp, cycle - storage.getTimeSinceLastSeen(index));
+					maxFactor = Math.max(maxFactor, factor);
+				} else {
+					frozenMax = Math.max(frozenMax, storage.computeCriticality(index));
+				}
+			}
+		}
+		int node = y * widths[1] + x;
+		minStamps[1][node] = minStamp;
+		maxFactors[1][node] = maxFactor;
+		frozenMaxes[1][node] = frozenMax;
+	}
+
+	private void summarizeNodes(int level, int x, int y) {
+		int below = level - 1;
+		int minStamp = NO_STAMP;
+		float maxFactor = 0;
+		double frozenMax = 0;
+		for (int cy = 2 * y; cy < Math.min(2 * y + 2, heights[below]); cy++) {
+			for (int cx = 2 * x; cx < Math.min(2 * x + 2, widths[below]); cx++) {
+				int child = cy * widths[below] + cx;
+				minStamp = Math.min(minStamp, minStamps[below][child]);
+				maxFactor = Math.max(maxFactor, maxFactors[below][child]);
+				frozenMax = Math.max(frozenMax, frozenMaxes[below][child]);
+			}
+		}
+		int node = y * widths[level] + x;
+		minStamps[level][node] = minStamp;
+		maxFactors[level][node] = maxFactor;
+		frozenMaxes[level][node] = frozenMax;
+	}
+
+	/**
+	 * Compute the highest criticality the areas of a node can have at a cycle
+	 */
+	private double bound(int level, int node, int cycle) {
+		if (level == 0)
+			return storage.computeCriticality(node);
+		double bound = frozenMaxes[level][node];
+		int minStamp = minStamps[level][node];
+		if (minStamp != NO_STAMP)
+			bound = Math.max(bound, Math.min((double) (cycle - minStamp) * maxFactors[level][node] / 1000, 1));
+		return bound;
+	}
+
+	/**
+	 * Getter for the highest criticality of the areas
+	 *
+	 * @return the highest criticality
+	 */
+	public double getMax() {
+		int[] top = new int[1];
+		return top(1, top) == 0 ? 0 : storage.computeCriticality(top[0]);
+	}
+
+	/**
+	 * Find the most critical areas
+	 *
+	 * @param k
+	 *            the number of areas to find
+	 * @param out
+	 *            receives the indexes of the areas, by decreasing criticality
+	 * @return the number of areas found, at most k
+	 */
+	public int top(int k, int[] out) {
+		return topWithin(k, 0, 0, Double.POSITIVE_INFINITY, out);
+	}
+
+	/**
+	 * Find the most critical areas around an area
+	 *
+	 * @param k
+	 *            the number of areas to find
+	 * @param center
+	 *            the central area, for instance the one of a drone
+	 * @param radius
+	 *            the maximum distance between the central area and the areas
+	 * @param out
+	 *            receives the indexes of the areas, by decreasing criticality
+	 * @return the number of areas found, at most k
+	 */
+	public int topWithin(int k, Area center, double radius, int[] out) {
+		return topWithin(k, center.getX(), center.getY(), radius, out);
+	}
+
+	/**
+	 * Find the most critical areas within a distance of a position
+	 *
+	 * @param k
+	 *            the number of areas to find
+	 * @param cx
+	 *            X coordinate of the position
+	 * @param cy
+	 *            Y coordinate of the position
+	 * @param radius
+	 *            the maximum distance between the position and the areas
+	 * @param out
+	 *            receives the indexes of the areas, by decreasing criticality
+	 * @return the number of areas found, at most k
+	 */
+	public synchronized int topWithin(int k, int cx, int cy, double radius, int[] out) {
+		int cycle = storage.getCycle();
+		int root = widths.length - 1;
+		int found = 0;
+		heapSize = 0;
+		for (int node = 0; node < widths[root] * heights[root]; node++)
+			offer(cycle, root, node, cx, cy, radius);
+		while (found < k && heapSize > 0) {
+			long top = heapNodes[0];
+			poll();
+			int level = (int) (top >>> 32);
+			int node = (int) top;
+			if (level == 0) {
+				out[found++] = node;
+				continue;
+			}
+			int x = node % widths[level];
+			int y = node / widths[level];
+			int below = level - 1;
+			for (int by = 2 * y; by < Math.min(2 * y + 2, heights[below]); by++)
+				for (int bx = 2 * x; bx < Math.min(2 * x + 2, widths[below]); bx++)
+					offer(cycle, below, by * widths[below] + bx, cx, cy, radius);
+		}
+		return found;
+	}
+
+	/**
+	 * Add a node to explore if it may hold an area close enough
+	 */
+	private void offer(int cycle, int level, int node, int cx, int cy, double radius) {
+		if (radius != Double.POSITIVE_INFINITY) {
+			int size = 1 << level;
+			int left = node % widths[level] * size;
+			int top = node / widths[level] * size;
+			int right = Math.min(left + size, width) - 1;
+			int bottom = Math.min(top + size, height) - 1;
+			double dx = Math.max(0, Math.max(left - cx, cx - right));
+			double dy = Math.max(0, Math.max(top - cy, cy - bottom));
+			if (dx * dx + dy * dy > radius * radius)
+				return;
+		}
+		if (heapSize == heapBounds.length) {
+			heapBounds = Arrays.copyOf(heapBounds, heapSize * 2);
+			heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+		}
+		double bound = bound(level, node, cycle);
+		long value = ((long) level << 32) | node;
+		int i = heapSize++;
+		// Areas first among equal bounds, so they are returned as soon as
+		// possible
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heapBounds[parent] > bound || (heapBounds[parent] == bound && heapNodes[parent] <= value))
+				break;
+			heapBounds[i] = heapBounds[parent];
+			heapNodes[i] = heapNodes[parent];
+			i = parent;
+		}
+		heapBounds[i] = bound;
+		heapNodes[i] = value;
+	}
+
+	private void poll() {
+		double lastBound = heapBounds[--heapSize];
+		long lastNode = heapNodes[heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && (heapBounds[child + 1] > heapBounds[child]
+					|| (heapBounds[child + 1] == heapBounds[child] && heapNodes[child + 1] < heapNodes[child])))
+				child++;
+			if (heapBounds[child] < lastBound || (heapBounds[child] == lastBound && heapNodes[child] >= lastNode))
+				break;
+			heapBounds[i] = heapBounds[child];
+			heapNodes[i] = heapNodes[child];
+			i = child;
+		}
+		heapBounds[i] = lastBound;
+		heapNodes[i] = lastNode;
+	}
+}
@@ -0,0 +1,359 @@
+package sc6;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Measure of the time spent and of the memory allocated in each phase of the
+ * cycles of a {@link DrAmas} and its {@link World}.
+ *
+ * Each phase is measured between a call to {@link #start(Phase)} and a call to
+ * {@link #end(Phase)} on the same thread, and recorded in its
+ * {@link PhaseStatistics}. A disabled profiler only reads a volatile flag, so
+ * the calls can stay in the code of the cycles.
+ *
+ * The statistics can be exposed as MBeans, one for the profiler and one per
+ * phase, and appended periodically to a CSV file.
+ *
+ */
+public class CycleProfiler implements CycleProfilerMBean {
+	/**
+	 * Phases of a cycle
+	 *
+	 */
+	public enum Phase {
+		/**
+		 * World.onCycle, the aging of the areas
+		 */
+		WORLD_CYCLE,
+		/**
+		 * DrAmas.onSystemCycleBegin
+		 */
+		CYCLE_BEGIN,
+		/**
+		 * All the agents of a system cycle, from the end of
+		 * onSystemCycleBegin to the start of onSystemCycleEnd. The agents run
+		 * on the threads of AMAK, not on the measuring one, so the allocations
+		 * are not counted: see PERCEIVE and DECIDE_AND_ACT instead.
+		 */
+		AGENTS(false),
+		/**
+		 * The perception of a drone, measured by the drone
+		 */
+		PERCEIVE,
+		/**
+		 * The decision and action of a drone, measured by the drone
+		 */
+		DECIDE_AND_ACT,
+		/**
+		 * DrAmas.onSystemCycleEnd, including the three next phases
+		 */
+		CYCLE_END,
+		/**
+		 * The detection and destruction of the colliding drones
+		 */
+		COLLISIONS,
+		/**
+		 * The LxPlot updates
+		 */
+		PLOT,
+		/**
+		 * The publication of the snapshot for the viewer
+		 */
+		SNAPSHOT;
+
+		/**
+		 * Whether the work of the phase runs on the thread measuring it, so
+		 * that the allocations of this thread are those of the phase
+		 */
+		private final boolean allocationsCounted;
+
+		private Phase() {
+			this(true);
+		}
+
+		private Phase(boolean allocationsCounted) {
+			this.allocationsCounted = allocationsCounted;
+		}
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+	/**
+	 * Marker of a phase which has not been started
+	 */
+	private static final long NOT_STARTED = Long.MIN_VALUE;
+	/**
+	 * Header of the CSV dumps
+	 */
+	private static final String HEADER = "time,cycles,phase,count,mean_ns,p50_ns,p90_ns,p99_ns,p999_ns,max_ns,"
+			+ "allocated_bytes_per_call";
+	/**
+	 * Counter of the profilers, to name their MBeans
+	 */
+	private static final AtomicInteger instances = new AtomicInteger();
+	/**
+	 * Counter of the bytes allocated by each thread, null if the JVM does not
+	 * provide it
+	 */
+	private static final com.sun.management.ThreadMXBean allocations = allocationCounter();
+
+	/**
+	 * Statistics of each phase, by ordinal
+	 */
+	private final PhaseStatistics[] statistics = new PhaseStatistics[PHASES.length];
+	/**
+	 * Start time and allocated bytes of the phases started on each thread
+	 */
+	private final ThreadLocal<long[]> starts = ThreadLocal.withInitial(() -> {
+		long[] res = new long[2 * PHASES.length];
+		Arrays.fill(res, NOT_STARTED);
+		return res;
+	});
+	private volatile boolean enabled;
+	/**
+	 * Name of the MBean of the profiler, null if it is not registered
+	 */
+	private ObjectName objectName;
+	/**
+	 * Thread of the periodic dumps, null if there is none
+	 */
+	private ScheduledExecutorService dumper;
+
+	/**
+	 * Constructor of a disabled profiler
+	 */
+	public CycleProfiler() {
+		for (Phase phase : PHASES)
+			statistics[phase.ordinal()] = new PhaseStatistics(phase.name());
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		try {
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (!(threads instanceof com.sun.management.ThreadMXBean))
+				return null;
+			com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+			if (!counter.isThreadAllocatedMemorySupported())
+				return null;
+			if (!counter.isThreadAllocatedMemoryEnabled())
+				counter.setThreadAllocatedMemoryEnabled(true);
+			return counter;
+		} catch (UnsupportedOperationException | SecurityException e) {
+			return null;
+		}
+	}
+
+	private static long allocatedBytes() {
+		return allocations == null ? -1 : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Start measuring a phase on the current thread
+	 *
+	 * @param phase
+	 *            the phase
+	 */
+	public void start(Phase phase) {
+		if (!enabled)
+			return;
+		long[] current = starts.get();
+		current[2 * phase.ordinal() + 1] = phase.allocationsCounted ? allocatedBytes() : -1;
+		current[2 * phase.ordinal()] = System.nanoTime();
+	}
+
+	/**
+	 * Stop measuring a phase on the current thread and record it. Phases which
+	 * have not been started on this thread, for instance because the profiler
+	 * has been enabled meanwhile, are ignored.
+	 *
+	 * @param phase
+	 *            the phase
+	 */
+	public void end(Phase phase) {
+		if (!enabled)
+			return;
+		long now = System.nanoTime();
+		long[] current = starts.get();
+		long start = current[2 * phase.ordinal()];
+		if (start == NOT_STARTED)
+			return;
+		current[2 * phase.ordinal()] = NOT_STARTED;
+		long startBytes = current[2 * phase.ordinal() + 1];
+		long bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+		statistics[phase.ordinal()].record(now - start, bytes);
+	}
+
+	/**
+	 * Getter for the statistics of a phase
+	 *
+	 * @param phase
+	 *            the phase
+	 * @return the statistics
+	 */
+	public PhaseStatistics getStatistics(Phase phase) {
+		return statistics[phase.ordinal()];
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public long getCycles() {
+		return statistics[Phase.CYCLE_END.ordinal()].getCount();
+	}
+
+	@Override
+	public String[] getPhases() {
+		String[] res = new String[PHASES.length];
+		for (Phase phase : PHASES)
+			res[phase.ordinal()] = phase.name();
+		return res;
+	}
+
+	@Override
+	public void reset() {
+		for (PhaseStatistics phase : statistics)
+			phase.reset();
+	}
+
+	@Override
+	public String report() {
+		StringBuilder res = new StringBuilder();
+		res.append(String.format(Locale.ROOT, "%-15s %10s %12s %10s %10s %10s %12s %14s%n", "Phase", "Count",
+				"Mean (us)", "P50 (us)", "P99 (us)", "Max (us)", "Total (ms)", "Bytes/call"));
+		for (PhaseStatistics phase : statistics) {
+			if (phase.getCount() == 0)
+				continue;
+			res.append(String.format(Locale.ROOT, "%-15s %10d %12.3f %10.3f %10.3f %10.3f %12.3f %14.1f%n",
+					phase.getName(), phase.getCount(), phase.getMeanNanos() / 1e3, phase.getP50Nanos() / 1e3,
+					phase.getP99Nanos() / 1e3, phase.getMaxNanos() / 1e3,
+					phase.getMeanNanos() * phase.getCount() / 1e6, phase.getAllocatedBytesPerCall()));
+		}
+		return res.toString();
+	}
+
+	/**
+	 * Register the MBeans of the profiler and of its phases in the platform
+	 * MBean server, as sc6:type=CycleProfiler,name=N[,phase=P]
+	 */
+	public synchronized void register() {
+		if (objectName != null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			String base = "sc6:type=CycleProfiler,name=" + instances.incrementAndGet();
+			ObjectName name = new ObjectName(base);
+			server.registerMBean(new StandardMBean(this, CycleProfilerMBean.class), name);
+			for (PhaseStatistics phase : statistics)
+				server.registerMBean(new StandardMBean(phase, PhaseStatisticsMBean.class),
+						new ObjectName(base + ",phase=" + phase.getName()));
+			objectName = name;
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot register the profiler: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Remove the MBeans of the profiler from the platform MBean server
+	 */
+	public synchronized void unregister() {
+		if (objectName == null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(objectName);
+			for (PhaseStatistics phase : statistics)
+				server.unregisterMBean(new ObjectName(objectName + ",phase=" + phase.getName()));
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot unregister the profiler: " + e.getMessage(), e);
+		} finally {
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Append the statistics of the phases to a CSV file, with a header if the
+	 * file is new
+	 *
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void dump(Path file) throws IOException {
+		boolean header = !Files.exists(file) || Files.size(file) == 0;
+		try (PrintWriter writer = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(file,
+				StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+			if (header)
+				writer.println(HEADER);
+			String time = Instant.now().toString();
+			long cycles = getCycles();
+			for (PhaseStatistics phase : statistics)
+				writer.printf(Locale.ROOT, "%s,%d,%s,%d,%.1f,%d,%d,%d,%d,%d,%.1f%n", time, cycles, phase.getName(),
+						phase.getCount(), phase.getMeanNanos(), phase.getP50Nanos(), phase.getP90Nanos(),
+						phase.getP99Nanos(), phase.getP999Nanos(), phase.getMaxNanos(),
+						phase.getAllocatedBytesPerCall());
+		}
+	}
+
+	/**
+	 * Dump the statistics periodically, from a daemon thread
+	 *
+	 * @param file
+	 *            the CSV file the statistics are appended to
+	 * @param period
+	 *            the time between two dumps
+	 * @param unit
+	 *            the unit of the period
+	 */
+	public synchronized void startDumping(Path file, long period, TimeUnit unit) {
+		stopDumping();
+		dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "CycleProfiler dump");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleAtFixedRate(() -> {
+			try {
+				dump(file);
+			} catch (IOException e) {
+				System.err.println("Cannot dump the profile: " + e.getMessage());
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stop the periodic dumps
+	 */
+	public synchronized void stopDumping() {
+		if (dumper == null)
+			return;
+		dumper.shutdownNow();
+		dumper = null;
+	}
+}
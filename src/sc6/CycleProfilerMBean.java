@@ -0,0 +1,42 @@
+package sc6;
+
+/**
+ * Management interface of the {@link CycleProfiler}
+ *
+ */
+public interface CycleProfilerMBean {
+	/**
+	 * Check if the phases are measured
+	 *
+	 * @return true if the profiler is enabled
+	 */
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	/**
+	 * Getter for the number of system cycles measured
+	 *
+	 * @return the number of cycles
+	 */
+	long getCycles();
+
+	/**
+	 * Getter for the names of the measured phases
+	 *
+	 * @return the phase names
+	 */
+	String[] getPhases();
+
+	/**
+	 * Forget all the measures
+	 */
+	void reset();
+
+	/**
+	 * Describe the statistics of all the phases
+	 *
+	 * @return one line per phase
+	 */
+	String report();
+}
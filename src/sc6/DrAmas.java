@@ -1,16 +1,18 @@
 package sc6;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.OptionalDouble;
 import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
 
-import fr.irit.smac.amak.Agent;
 import fr.irit.smac.amak.Amas;
 import fr.irit.smac.amak.Scheduling;
 import fr.irit.smac.amak.ui.MainWindow;
-import fr.irit.smac.lxplot.LxPlot;
+import sc6.Area.AreaType;
 
 /**
  * This class represents the AMAS
@@ -23,9 +25,78 @@ public class DrAmas extends Amas<World> {
 	 */
 	private static final int INITIAL_DRONE_COUNT = 5;
 	/**
-	 * Queue used to compute the sliding window
+	 * Number of cycles of the sliding window
 	 */
-	private LinkedList<Double> lastSums = new LinkedList<>();
+	private static final int SLIDING_WINDOW_SIZE = 10000;
+	/**
+	 * Maximum number of destroyed drones kept for the next spawns
+	 */
+	private static final int MAX_POOLED_DRONES = 10000;
+	/**
+	 * Index of the series of the sums in the chart feed
+	 */
+	private static final int SUM_SERIES = 0;
+	/**
+	 * Index of the series of the sliding averages in the chart feed
+	 */
+	private static final int SLIDING_AVERAGE_SERIES = 1;
+	/**
+	 * Statistics used to compute the sliding window
+	 */
+	private WindowedStatistics lastSums;
+	/**
+	 * Index of the drones present in each area
+	 */
+	private OccupancyIndex occupancy;
+	/**
+	 * Detector of the drones sharing the same area
+	 */
+	private CollisionDetector collisionDetector = new CollisionDetector();
+	/**
+	 * Drones colliding during the current cycle, cleared at each cycle
+	 */
+	private final Set<Drone> collided = new LinkedHashSet<>();
+	/**
+	 * Number of drones destroyed by collisions since the creation
+	 */
+	private long collisionDeaths;
+	/**
+	 * Snapshots of the system read by the viewer
+	 */
+	private final SnapshotBuffer snapshots = new SnapshotBuffer();
+	/**
+	 * Changes requested by the viewer and the controllers, applied at the
+	 * beginning of the cycles
+	 */
+	private final CommandQueue commands = new CommandQueue();
+	/**
+	 * Drones destroyed but still in the agents until AMAK removes them, after
+	 * the agents of the cycle for the drones destroyed before, or at the next
+	 * cycle for the drones destroyed at the end of a cycle
+	 */
+	private final Set<Drone> removing = new LinkedHashSet<>();
+	/**
+	 * Destroyed drones which can be respawned, once AMAK has removed them from
+	 * the agents
+	 */
+	private final ArrayDeque<Drone> pool = new ArrayDeque<>();
+	/**
+	 * Measure of the phases of the cycles
+	 */
+	private CycleProfiler profiler;
+	/**
+	 * Destroy the drones sharing the same area at the end of each cycle
+	 */
+	private volatile boolean collisionDetection;
+	/**
+	 * Display the criticalities with LxPlot
+	 */
+	private boolean plotting;
+	/**
+	 * Samples of the criticalities, drawn with LxPlot at a fixed rate when
+	 * plotting
+	 */
+	private ChartFeed chartFeed;
 
 	/**
 	 * Constructor
@@ -35,131 +106,401 @@ public class DrAmas extends Amas<World> {
 	 */
 	public DrAmas(World env) {
 		// Set the environment and use manual scheduling
-		super(env, Scheduling.DEFAULT);
+		this(env, Scheduling.DEFAULT, INITIAL_DRONE_COUNT, true);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param env
+	 *            The environment of the AMAS
+	 * @param scheduling
+	 *            The scheduling of the AMAS
+	 * @param droneCount
+	 *            Number of drones created with the AMAS
+	 * @param plotting
+	 *            true to display the criticalities with LxPlot
+	 */
+	public DrAmas(World env, Scheduling scheduling, int droneCount, boolean plotting) {
+		super(env, scheduling, droneCount);
+		this.plotting = plotting;
+		chartFeed = new ChartFeed("Area criticalities", ChartFeed.DEFAULT_BUCKETS, "Sum", "Sliding average");
+		if (plotting)
+			chartFeed.start(ChartFeed.DEFAULT_RATE);
+		lastSums = new WindowedStatistics(0, env.getStorage().size(), 1000, SLIDING_WINDOW_SIZE);
+	}
+
+	/**
+	 * Create the occupancy index and the profiler before the initial drones
+	 */
+	@Override
+	protected void onInitialConfiguration() {
+		occupancy = new OccupancyIndex(getEnvironment().getStorage());
+		profiler = new CycleProfiler();
+		getEnvironment().setProfiler(profiler);
 	}
 
 	/**
-	 * Create the agents at random positions
+	 * Create the agents on the recharge stations, in row order, then at random
+	 * allowed positions
 	 */
 	@Override
 	protected void onInitialAgentsCreation() {
-		for (int i = 0; i < INITIAL_DRONE_COUNT; i++) {
-			int x = 8;
-			int y = 24 + i*2;
-			Area start = getEnvironment().getAreaByPosition(x, y);
+		int droneCount = params.length > 0 ? (Integer) params[0] : INITIAL_DRONE_COUNT;
+		World world = getEnvironment();
+		int station = world.getTypeIndex().next(AreaType.RECHARGE, 0);
+		for (int i = 0; i < droneCount; i++) {
+			Area start;
+			if (station >= 0) {
+				start = world.getArea(station);
+				station = world.getTypeIndex().next(AreaType.RECHARGE, station + 1);
+			} else {
+				start = randomAllowedArea();
+			}
 			new Drone(this, start.getX(), start.getY());
 		}
 			
 	}
-	
+
+	/**
+	 * Pick a random area where drones are allowed, among the areas of the
+	 * allowed types
+	 * 
+	 * @return the area
+	 */
+	private Area randomAllowedArea() {
+		World world = getEnvironment();
+		return world.getArea(DronePlacement.randomAllowedArea(world.getTypeIndex(), world.getRandom()));
+	}
+
+	/**
+	 * Create a batch of drones, reusing the destroyed drones which can be
+	 * respawned. Must be called from the thread of the cycles, the other
+	 * threads use {@link CommandQueue#spawnDrones(int, DronePlacement)}. AMAK
+	 * adds the drones to the agents once the agents of the cycle have run.
+	 * 
+	 * @param count
+	 *            the number of drones
+	 * @param placement
+	 *            the choice of their areas
+	 */
+	public void spawnDrones(int count, DronePlacement placement) {
+		if (count < 0)
+			throw new IllegalArgumentException("The number of drones must not be negative: " + count);
+		World world = getEnvironment();
+		int[] positions = placement.place(world, world.getRandom(), count);
+		for (int position : positions) {
+			Area area = world.getArea(position);
+			Drone drone = pool.pollLast();
+			if (drone == null) {
+				new Drone(this, area.getX(), area.getY());
+			} else {
+				_addAgent(drone);
+				((Respawnable) drone).respawn(area);
+			}
+		}
+	}
+
+	/**
+	 * Destroy a batch of drones picked at random, and keep those which can be
+	 * respawned for the next spawns. Must be called from the thread of the
+	 * cycles, the other threads use {@link CommandQueue#despawnDrones(int)}.
+	 * AMAK removes the drones from the agents once the agents of the cycle
+	 * have run, or at the next cycle if they are destroyed at its end.
+	 * 
+	 * @param count
+	 *            the number of drones
+	 * @return the number of drones destroyed, at most the number of agents
+	 *         not destroyed yet
+	 */
+	public int despawnDrones(int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("The number of drones must not be negative: " + count);
+		// Skip the drones already destroyed, by a previous batch or a collision
+		int[] picked = new int[agents.size()];
+		int alive = 0;
+		for (int i = 0; i < agents.size(); i++)
+			if (!removing.contains(agents.get(i)))
+				picked[alive++] = i;
+		int destroyed = Math.min(count, alive);
+		// Partial shuffle, so that each drone is destroyed once
+		for (int i = 0; i < destroyed; i++) {
+			int j = i + getEnvironment().getRandom().nextInt(alive - i);
+			int agent = picked[j];
+			picked[j] = picked[i];
+			recycle((Drone) agents.get(agent));
+		}
+		return destroyed;
+	}
+
+	/**
+	 * Destroy a drone, which is kept for the next spawns once AMAK has removed
+	 * it if it can be respawned
+	 * 
+	 * @param drone
+	 *            the drone
+	 */
+	private void recycle(Drone drone) {
+		drone.destroy();
+		removing.add(drone);
+	}
+
+	/**
+	 * Getter for the number of destroyed drones kept for the next spawns
+	 * 
+	 * @return the number of pooled drones
+	 */
+	public int getPooledDrones() {
+		return pool.size();
+	}
 
 	/**
 	 * Launch the system
 	 * 
 	 * @param args
-	 *            Arguments of the problem (not used)
+	 *            Optional path of a map file, the default world is used
+	 *            otherwise
+	 * @throws IOException
+	 *             if the map cannot be read
 	 */
-	public static void main(String[] args) {
-		DrAmas drAmas = new DrAmas(new World());
+	public static void main(String[] args) throws IOException {
+		World world = args.length > 0 ? new World(Scheduling.DEFAULT, MapFile.read(Paths.get(args[0]))) : new World();
+		DrAmas drAmas = new DrAmas(world);
+		// Disabled until enabled through JMX
+		drAmas.getProfiler().register();
 		
 		new WorldViewer(drAmas);
 		MainWindow.addMenuItem("Remove 10 drones", l->{
-			for (int i=0;i<10;i++) {
-				drAmas.getAgents().get(drAmas.getEnvironment().getRandom().nextInt(drAmas.getAgents().size())).destroy();
+			drAmas.getCommands().despawnDrones(10);
+		});
+		MainWindow.addMenuItem("Toggle collision detection", l->{
+			drAmas.setCollisionDetection(!drAmas.isCollisionDetection());
+		});
+		MainWindow.addMenuItem("Export criticalities", l->{
+			try {
+				drAmas.getChartFeed().export(Paths.get("criticalities.csv"));
+			} catch (IOException e) {
+				System.err.println("Cannot export the criticalities: " + e.getMessage());
 			}
 		});
 		MainWindow.addMenuItem("Add 10 drones", l->{
-			for (int i=0;i<10;i++) {
-
-				new Drone(drAmas, drAmas.getEnvironment().getRandom().nextInt(World.WIDTH), drAmas.getEnvironment().getRandom().nextInt(World.HEIGHT));
-			}
+			drAmas.getCommands().spawnDrones(10, DronePlacement.UNIFORM);
 		});
 		
 	}
 
+	/**
+	 * At the beginning of each system cycle, apply the pending commands then
+	 * synchronize the occupancy index with the drones added, removed or moved
+	 * since the last cycle
+	 */
+	@Override
+	protected void onSystemCycleBegin() {
+		profiler.start(CycleProfiler.Phase.CYCLE_BEGIN);
+		commands.drain(this);
+		occupancy.refresh(agents);
+		profiler.end(CycleProfiler.Phase.CYCLE_BEGIN);
+		profiler.start(CycleProfiler.Phase.AGENTS);
+	}
+
 	/**
 	 * At the end of each system cycle, compute the sum and average of area
 	 * criticalities and display them
 	 */
 	@Override
 	protected void onSystemCycleEnd() {
-		double max = 0;
-		double sum = 0;
-		for (int x = 0; x < getEnvironment().getAreas()[0].length; x++) {
-			for (int y = 0; y < getEnvironment().getAreas().length; y++) {
-				double criticality = getEnvironment().getAreaByPosition(x, y).computeCriticality();
-				sum += criticality;
-				if (criticality > max)
-					max = criticality;
-			}
-		}
-		/*List<Agent> toDestroy = new ArrayList<Agent>();
-		for(Agent ag : getAgents()) {
-			for(Agent ag2 : getAgents()) {
-				if(ag != ag2 ) {
-					Drone d1 = (Drone)ag;
-					Drone d2 = (Drone)ag2;
-					if(d1.getCurrentArea().equals(d2.getCurrentArea())) {
-						toDestroy.add(ag);
-						toDestroy.add(ag2);
-						System.out.println("Le drone : "+ d1.getId()+" est mort et sa mission : "+d1.getMission());
-						System.out.println("Le drone : "+ d2.getId()+" est mort et sa mission : "+d2.getMission());
-					}
-				}
-			}
+		profiler.end(CycleProfiler.Phase.AGENTS);
+		profiler.start(CycleProfiler.Phase.CYCLE_END);
+		// AMAK has removed the drones destroyed since the previous cycle end
+		for (Drone drone : removing)
+			if (drone instanceof Respawnable && pool.size() < MAX_POOLED_DRONES)
+				pool.add(drone);
+		removing.clear();
+		CriticalityAggregator criticalities = getEnvironment().getCriticalities();
+		double max = criticalities.getMax();
+		double sum = criticalities.getSum();
+		if (collisionDetection) {
+			profiler.start(CycleProfiler.Phase.COLLISIONS);
+			collided.clear();
+			collisionDetector.detect(agents, (d1, d2) -> {
+				collided.add(d1);
+				collided.add(d2);
+			});
+			for (Drone d : collided)
+				recycle(d);
+			collisionDeaths += collided.size();
+			collided.clear();
+			profiler.end(CycleProfiler.Phase.COLLISIONS);
 		}
-		for(Agent d: toDestroy) {
-			d.destroy();
-		}*/
 		lastSums.add(sum);
-		if (lastSums.size() > 10000)
-			lastSums.poll();
 
-		LxPlot.getChart("Area criticalities").add("Sum", getCycle() % 1000, sum);
-		LxPlot.getChart("Area criticalities").add("Sliding average", getCycle() % 1000, average(lastSums));
+		if (plotting) {
+			profiler.start(CycleProfiler.Phase.PLOT);
+			chartFeed.add(SUM_SERIES, getCycle(), sum);
+			chartFeed.add(SLIDING_AVERAGE_SERIES, getCycle(), lastSums.getAverage(0));
+			profiler.end(CycleProfiler.Phase.PLOT);
+		}
+		profiler.start(CycleProfiler.Phase.SNAPSHOT);
+		snapshots.publishIfConsumed(this);
+		profiler.end(CycleProfiler.Phase.SNAPSHOT);
+		profiler.end(CycleProfiler.Phase.CYCLE_END);
+	}
+
+	/**
+	 * Getter for the queue of the changes applied at the beginning of the
+	 * cycles, to be used by any thread other than the one of the cycles
+	 * 
+	 * @return the command queue
+	 */
+	public CommandQueue getCommands() {
+		return commands;
+	}
+
+	/**
+	 * Getter for the snapshots of the system, published at the end of the
+	 * cycles
+	 * 
+	 * @return the snapshot buffer
+	 */
+	public SnapshotBuffer getSnapshots() {
+		return snapshots;
+	}
+
+	/**
+	 * Getter for the measure of the phases of the cycles. The drones measure
+	 * their own phases, {@link CycleProfiler.Phase#PERCEIVE} and
+	 * {@link CycleProfiler.Phase#DECIDE_AND_ACT}, through it.
+	 * 
+	 * @return the profiler, disabled by default
+	 */
+	public CycleProfiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Getter for the samples of the criticalities, at full resolution, filled
+	 * when plotting
+	 * 
+	 * @return the chart feed
+	 */
+	public ChartFeed getChartFeed() {
+		return chartFeed;
+	}
+
+	/**
+	 * Getter for the statistics on the last sums of criticalities
+	 * 
+	 * @return the sliding window statistics
+	 */
+	public WindowedStatistics getLastSums() {
+		return lastSums;
+	}
+
+	/**
+	 * Check if the drones sharing the same area are destroyed at the end of
+	 * each cycle
+	 * 
+	 * @return true if the collision detection is enabled
+	 */
+	public boolean isCollisionDetection() {
+		return collisionDetection;
 	}
 
 	/**
-	 * Compute the average of a list
+	 * Getter for the number of drones destroyed by collisions since the
+	 * creation of the AMAS
 	 * 
-	 * @param lastSums2
-	 *            List on which computing the average
-	 * @return the average
+	 * @return the number of drones
 	 */
-	private double average(LinkedList<Double> lastSums2) {
-		OptionalDouble average = lastSums2.stream().mapToDouble(a -> a).average();
-		return average.getAsDouble();
+	public long getCollisionDeaths() {
+		return collisionDeaths;
 	}
 
 	/**
-	 * Get agents presents in a specified area
+	 * Enable or disable the destruction of the drones sharing the same area at
+	 * the end of each cycle
+	 * 
+	 * @param collisionDetection
+	 *            true to enable the collision detection
+	 */
+	public void setCollisionDetection(boolean collisionDetection) {
+		this.collisionDetection = collisionDetection;
+	}
+
+	/**
+	 * Inform that a drone has moved, so that the queries on its new area take
+	 * it into account before the end of the cycle
+	 * 
+	 * @param drone
+	 *            The drone which has moved
+	 */
+	public void updateOccupancy(Drone drone) {
+		occupancy.move(drone, drone.getCurrentArea());
+	}
+
+	/**
+	 * Getter for the index of the drones present in each area
+	 * 
+	 * @return the occupancy index
+	 */
+	public OccupancyIndex getOccupancy() {
+		return occupancy;
+	}
+
+	/**
+	 * Visit the agents present in a specified area, without allocating. The
+	 * areas are those indexed at the beginning of the cycle, plus the moves
+	 * reported by {@link #updateOccupancy(Drone)}.
+	 * 
+	 * @param area
+	 *            The specified area
+	 * @param visitor
+	 *            Action applied on each drone
+	 */
+	public void forEachAgentInArea(Area area, Consumer<Drone> visitor) {
+		occupancy.forEach(area, visitor);
+	}
+
+	/**
+	 * Count the agents present in a specified area, without allocating. The
+	 * areas are those indexed at the beginning of the cycle, plus the moves
+	 * reported by {@link #updateOccupancy(Drone)}.
+	 * 
+	 * @param area
+	 *            The specified area
+	 * @return the number of drones in this area
+	 */
+	public int countAgentsInArea(Area area) {
+		return occupancy.count(area);
+	}
+
+	/**
+	 * Get agents presents in a specified area. Kept for the existing callers,
+	 * it allocates an array per call: prefer
+	 * {@link #forEachAgentInArea(Area, Consumer)} or
+	 * {@link #countAgentsInArea(Area)}. Same positions as these methods, not
+	 * a live scan of the agents.
 	 * 
 	 * @param areaByPosition
 	 *            The specified area
-	 * @return the list of drones in this area
+	 * @return the drones in this area
 	 */
 	public Drone[] getAgentsInArea(Area areaByPosition) {
-		List<Drone> res = new ArrayList<>();
-		for (Agent<?, World> agent : agents) {
-			if (((Drone) agent).getCurrentArea() == areaByPosition)
-				res.add((Drone) agent);
-		}
-		return res.toArray(new Drone[0]);
+		return occupancy.toArray(areaByPosition);
 	}
 	
 	/**
-	 * Get agents presents in a specified area
+	 * Get agents presents in a specified area. Kept for the existing callers,
+	 * it allocates a list per call: prefer
+	 * {@link #forEachAgentInArea(Area, Consumer)} or
+	 * {@link #countAgentsInArea(Area)}. Same positions as these methods, not
+	 * a live scan of the agents.
 	 * 
 	 * @param areaByPosition
 	 *            The specified area
 	 * @return the list of drones in this area
 	 */
 	public List<Drone> getAgentsInAreaList(Area areaByPosition) {
-		List<Drone> res = new ArrayList<>();
-		for (Agent<?, World> agent : agents) {
-			if (((Drone) agent).getCurrentArea() == areaByPosition)
-				res.add((Drone) agent);
-		}
-		return res;
+		return occupancy.getDrones(areaByPosition);
 	}
 }
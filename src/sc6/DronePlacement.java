@@ -0,0 +1,113 @@
+package sc6;
+
+import java.util.Random;
+
+import sc6.Area.AreaType;
+
+/**
+ * Choice of the areas where a batch of drones appears
+ *
+ */
+public enum DronePlacement {
+	/**
+	 * On the RECHARGE areas picked at random, or as {@link #UNIFORM} if there
+	 * is none
+	 */
+	RECHARGE,
+	/**
+	 * On areas picked at random among the areas where the drones are allowed
+	 */
+	UNIFORM,
+	/**
+	 * On the allowed areas closest to an allowed area picked at random, one
+	 * drone per area as long as the reachable areas are enough
+	 */
+	CLUSTERED;
+
+	/**
+	 * Choose the areas of a batch of drones
+	 *
+	 * @param world
+	 *            the world
+	 * @param random
+	 *            the random generator
+	 * @param count
+	 *            the number of drones
+	 * @return the index of the area of each drone
+	 */
+	public int[] place(World world, Random random, int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("The number of drones must not be negative: " + count);
+		if (count == 0)
+			return new int[0];
+		AreaTypeIndex typeIndex = world.getTypeIndex();
+		if (this == RECHARGE && typeIndex.count(AreaType.RECHARGE) > 0) {
+			int[] res = new int[count];
+			for (int i = 0; i < count; i++)
+				res[i] = typeIndex.get(AreaType.RECHARGE, random.nextInt(typeIndex.count(AreaType.RECHARGE)));
+			return res;
+		}
+		if (this == CLUSTERED)
+			return cluster(world, randomAllowedArea(typeIndex, random), count);
+		int[] res = new int[count];
+		for (int i = 0; i < count; i++)
+			res[i] = randomAllowedArea(typeIndex, random);
+		return res;
+	}
+
+	/**
+	 * Pick a random area where drones are allowed, among the areas of the
+	 * allowed types
+	 *
+	 * @param typeIndex
+	 *            the index of the areas by type
+	 * @param random
+	 *            the random generator
+	 * @return the index of the area
+	 */
+	static int randomAllowedArea(AreaTypeIndex typeIndex, Random random) {
+		int total = 0;
+		for (AreaType type : AreaType.values())
+			if (Area.isAllowed(type))
+				total += typeIndex.count(type);
+		if (total == 0)
+			throw new IllegalStateException("No allowed area found to place a drone");
+		int position = random.nextInt(total);
+		for (AreaType type : AreaType.values()) {
+			if (!Area.isAllowed(type))
+				continue;
+			if (position < typeIndex.count(type))
+				return typeIndex.get(type, position);
+			position -= typeIndex.count(type);
+		}
+		throw new IllegalStateException("No allowed area found to place a drone");
+	}
+
+	/**
+	 * Fill the allowed areas by increasing number of moves from a center, then
+	 * start again from the center if they are not enough
+	 */
+	private static int[] cluster(World world, int center, int count) {
+		NeighbourGraph graph = world.getNeighbourGraph();
+		AreaStorage storage = world.getStorage();
+		int[] res = new int[count];
+		int[] queue = new int[Math.min(count, storage.size())];
+		boolean[] visited = new boolean[storage.size()];
+		int tail = 0;
+		queue[tail++] = center;
+		visited[center] = true;
+		for (int head = 0; head < tail && tail < queue.length; head++) {
+			int area = queue[head];
+			for (int p = graph.firstNeighbour(area); p < graph.endNeighbour(area) && tail < queue.length; p++) {
+				int neighbour = graph.neighbour(p);
+				if (!visited[neighbour] && storage.isAllowed(neighbour)) {
+					visited[neighbour] = true;
+					queue[tail++] = neighbour;
+				}
+			}
+		}
+		for (int i = 0; i < count; i++)
+			res[i] = queue[i % tail];
+		return res;
+	}
+}
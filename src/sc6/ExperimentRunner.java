@@ -0,0 +1,374 @@
+package sc6;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.irit.smac.amak.Scheduling;
+import sc6.Area.AreaType;
+
+/**
+ * Run many independent simulations at the same time, one per combination of
+ * the swept parameters, and write their results to a single CSV file.
+ *
+ * Each run has its own {@link World}, seeded with its own seed, and its own
+ * {@link DrAmas}, both cycled without any scheduler thread as in the
+ * {@link HeadlessRunner}. The runs share a thread pool, and each run keeps the
+ * passes over its areas on its own thread, as the runs already use the
+ * cores. The worlds of the same layout and outdate factor share the same
+ * immutable {@link MapFile}.
+ *
+ * Every sample interval, each run writes a row with its parameters, the
+ * cycle, the sum, average and max of the criticalities, the sliding average
+ * of the sum and the cycles per second since the previous row. The rows of
+ * the runs are interleaved as they are produced.
+ *
+ * Usage: ExperimentRunner [-drones D1,D2,...] [-factors F1,F2,...] [-layouts
+ * SQUARE,HEX] [-seeds S1,S2,...|FIRST-LAST] [-cycles N] [-sample N] [-width W]
+ * [-height H] [-map FILE] [-threads T] [-out FILE]
+ *
+ * The factors replace the outdate factor of every SURVEY area. A map file
+ * replaces the size and the layouts options.
+ *
+ */
+public class ExperimentRunner {
+	/**
+	 * Header of the CSV output
+	 */
+	private static final String HEADER = "run,drones,factor,layout,width,height,seed,cycle,sum,average,max,"
+			+ "sliding_average,cycles_per_second";
+
+	private List<Integer> drones = new ArrayList<>();
+	/**
+	 * Outdate factors of the SURVEY areas, empty to keep the ones of the map
+	 */
+	private List<Float> factors = new ArrayList<>();
+	private List<NeighbourGraph.Layout> layouts = new ArrayList<>();
+	private List<Long> seeds = new ArrayList<>();
+	/**
+	 * Number of cycles of each run
+	 */
+	private int cycles = 10000;
+	/**
+	 * Number of cycles between two rows of a run
+	 */
+	private int sample = 100;
+	private int width = World.WIDTH;
+	private int height = World.HEIGHT;
+	/**
+	 * Map of the worlds, if any
+	 */
+	private Path map;
+	/**
+	 * Number of runs executed at the same time
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Output file, the standard output if null
+	 */
+	private Path out;
+
+	/**
+	 * Output shared by the runs
+	 */
+	private PrintWriter writer;
+
+	/**
+	 * Launch a sweep
+	 *
+	 * @param args
+	 *            Options of the sweep
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		ExperimentRunner runner = new ExperimentRunner();
+		try {
+			runner.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: ExperimentRunner [-drones D1,D2,...] [-factors F1,F2,...] [-layouts SQUARE,HEX] "
+					+ "[-seeds S1,S2,...|FIRST-LAST] [-cycles N] [-sample N] [-width W] [-height H] [-map FILE] "
+					+ "[-threads T] [-out FILE]");
+			System.exit(1);
+		}
+		try {
+			runner.run();
+		} catch (IOException e) {
+			System.err.println("Cannot run the sweep: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Read the options of the sweep
+	 *
+	 * @param args
+	 *            the command line arguments
+	 */
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + option);
+			String value = args[++i];
+			try {
+				switch (option) {
+				case "-drones":
+					for (String item : value.split(","))
+						drones.add(Integer.parseInt(item.trim()));
+					break;
+				case "-factors":
+					for (String item : value.split(",")) {
+						float factor = Float.parseFloat(item.trim());
+						if (!(factor >= 0))
+							throw new NumberFormatException();
+						factors.add(factor);
+					}
+					break;
+				case "-layouts":
+					for (String item : value.split(","))
+						layouts.add(NeighbourGraph.Layout.valueOf(item.trim().toUpperCase(Locale.ROOT)));
+					break;
+				case "-seeds":
+					parseSeeds(value);
+					break;
+				case "-cycles":
+					cycles = Integer.parseInt(value);
+					break;
+				case "-sample":
+					sample = Integer.parseInt(value);
+					if (sample <= 0)
+						throw new NumberFormatException();
+					break;
+				case "-width":
+					width = Integer.parseInt(value);
+					break;
+				case "-height":
+					height = Integer.parseInt(value);
+					break;
+				case "-map":
+					map = Paths.get(value);
+					break;
+				case "-threads":
+					threads = Integer.parseInt(value);
+					if (threads <= 0)
+						throw new NumberFormatException();
+					break;
+				case "-out":
+					out = Paths.get(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+			}
+		}
+		if (drones.isEmpty())
+			drones.add(5);
+		if (layouts.isEmpty())
+			layouts.add(NeighbourGraph.Layout.SQUARE);
+		if (seeds.isEmpty())
+			seeds.add(0L);
+	}
+
+	private void parseSeeds(String value) {
+		int range = value.indexOf('-', 1);
+		if (range > 0 && !value.contains(",")) {
+			long first = Long.parseLong(value.substring(0, range).trim());
+			long last = Long.parseLong(value.substring(range + 1).trim());
+			for (long seed = first; seed <= last; seed++)
+				seeds.add(seed);
+			return;
+		}
+		for (String item : value.split(","))
+			seeds.add(Long.parseLong(item.trim()));
+	}
+
+	/**
+	 * Run all the combinations of the parameters and wait for them
+	 *
+	 * @throws IOException
+	 *             if the map cannot be read or the output cannot be written
+	 */
+	private void run() throws IOException {
+		// The runs already use the cores, the passes over the areas of a run
+		// stay on its thread
+		GridSweep.setDefault(new GridSweep(GridSweep.DEFAULT_TILE_WIDTH, GridSweep.DEFAULT_TILE_HEIGHT, 1));
+		List<Run> runs = plan();
+		Writer output = out == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+				: Files.newBufferedWriter(out, StandardCharsets.UTF_8);
+		writer = new PrintWriter(new BufferedWriter(output));
+		writer.println(HEADER);
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		int failures = 0;
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Run run : runs)
+				futures.add(executor.submit(run));
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException e) {
+					failures++;
+					System.err.println("Run " + i + " failed: " + e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted", e);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			synchronized (writer) {
+				writer.flush();
+				if (out != null)
+					writer.close();
+			}
+		}
+		System.err.printf(Locale.ROOT, "%d runs (%d failed) on %d threads in %.3f s%n", runs.size(), failures,
+				threads, (System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Build the runs, one per combination of the parameters
+	 *
+	 * @return the runs
+	 * @throws IOException
+	 *             if the map cannot be read
+	 */
+	private List<Run> plan() throws IOException {
+		MapFile base = map == null ? null : MapFile.read(map);
+		List<NeighbourGraph.Layout> worldLayouts = new ArrayList<>(layouts);
+		if (base != null) {
+			worldLayouts.clear();
+			worldLayouts.add(base.getLayout());
+		}
+		List<Float> worldFactors = new ArrayList<>(factors);
+		if (worldFactors.isEmpty())
+			worldFactors.add(Float.NaN);
+		Map<String, MapFile> worlds = new HashMap<>();
+		List<Run> runs = new ArrayList<>();
+		for (NeighbourGraph.Layout layout : worldLayouts) {
+			for (float factor : worldFactors) {
+				MapFile world = worlds.computeIfAbsent(layout + "/" + factor, k -> createMap(base, layout, factor));
+				for (int droneCount : drones)
+					for (long seed : seeds)
+						runs.add(new Run(runs.size(), world, droneCount, factor, seed));
+			}
+		}
+		return runs;
+	}
+
+	/**
+	 * Create the map of a world
+	 *
+	 * @param base
+	 *            the map given to the sweep, or null for the default layout
+	 * @param layout
+	 *            the layout of the areas
+	 * @param factor
+	 *            the outdate factor of the SURVEY areas, NaN to keep the ones
+	 *            of the map
+	 * @return the map
+	 */
+	private MapFile createMap(MapFile base, NeighbourGraph.Layout layout, float factor) {
+		int mapWidth = base == null ? width : base.getWidth();
+		int mapHeight = base == null ? height : base.getHeight();
+		AreaType[] types = new AreaType[mapWidth * mapHeight];
+		float[] outdateFactors = new float[types.length];
+		for (int y = 0; y < mapHeight; y++) {
+			for (int x = 0; x < mapWidth; x++) {
+				int index = y * mapWidth + x;
+				types[index] = base == null ? Area.defaultType(x, y, mapWidth, mapHeight) : base.getType(index);
+				outdateFactors[index] = base == null ? Area.DEFAULT_OUTDATE_FACTOR : base.getOutdateFactor(index);
+				if (types[index] == AreaType.SURVEY && !Float.isNaN(factor))
+					outdateFactors[index] = factor;
+			}
+		}
+		return MapFile.of(mapWidth, mapHeight, layout, types, outdateFactors);
+	}
+
+	/**
+	 * A simulation of the sweep
+	 *
+	 */
+	private class Run implements Runnable {
+		private final int id;
+		private final MapFile world;
+		private final int droneCount;
+		private final float factor;
+		private final long seed;
+
+		private Run(int id, MapFile world, int droneCount, float factor, long seed) {
+			this.id = id;
+			this.world = world;
+			this.droneCount = droneCount;
+			this.factor = factor;
+			this.seed = seed;
+		}
+
+		@Override
+		public void run() {
+			World env = new World(Scheduling.HIDDEN, world);
+			env.setSeed(seed);
+			DrAmas drAmas = new DrAmas(env, Scheduling.HIDDEN, droneCount, false);
+			String parameters = String.format(Locale.ROOT, "%d,%d,%s,%s,%d,%d,%d", id, droneCount,
+					Float.isNaN(factor) ? "" : Float.toString(factor), world.getLayout(), world.getWidth(),
+					world.getHeight(), seed);
+			CriticalityAggregator criticalities = env.getCriticalities();
+			int size = env.getStorage().size();
+			List<String> rows = new ArrayList<>();
+			drAmas.onSchedulingStarts();
+			try {
+				long last = System.nanoTime();
+				for (int cycle = 1; cycle <= cycles; cycle++) {
+					if (Thread.currentThread().isInterrupted())
+						return;
+					env.cycle();
+					drAmas.cycle();
+					if (cycle % sample != 0 && cycle != cycles)
+						continue;
+					long now = System.nanoTime();
+					int elapsed = cycle % sample == 0 ? sample : cycle % sample;
+					double sum = criticalities.getSum();
+					rows.add(String.format(Locale.ROOT, "%s,%d,%.4f,%.6f,%.4f,%.4f,%.1f", parameters, cycle, sum,
+							sum / size, criticalities.getMax(), drAmas.getLastSums().getAverage(0),
+							elapsed / ((now - last) / 1e9)));
+					last = now;
+					// Write the rows by batches to limit the contention
+					if (rows.size() >= 16)
+						write(rows);
+				}
+			} finally {
+				drAmas.onSchedulingStops();
+				write(rows);
+			}
+		}
+
+		private void write(List<String> rows) {
+			if (rows.isEmpty())
+				return;
+			synchronized (writer) {
+				for (String row : rows)
+					writer.println(row);
+			}
+			rows.clear();
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package sc6;
+
+import java.util.Arrays;
+
+import sc6.Area.AreaType;
+
+/**
+ * Distance to the closest RECHARGE area of every area of the world, counted
+ * in moves over the {@link NeighbourGraph} and avoiding the areas where the
+ * drones are not allowed, with the next move toward this station. Drones
+ * returning to home get their next step in O(1).
+ *
+ * The field is computed once by a breadth-first search from all the stations,
+ * then repaired locally when the type of an area changes: the areas whose
+ * path went through the changed area are reset and recomputed from their
+ * still valid neighbours.
+ *
+ */
+public class FlowField implements AreaStorage.TypeListener {
+	/**
+	 * Distance of the areas from which no station can be reached
+	 */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+	/**
+	 * Marker of a missing next move
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * The areas
+	 */
+	private final AreaStorage storage;
+	/**
+	 * The adjacency of the areas
+	 */
+	private final NeighbourGraph graph;
+	/**
+	 * Distance of each area to the closest station
+	 */
+	private final int[] distances;
+	/**
+	 * Next area toward the closest station, NONE for the stations and the
+	 * unreachable areas
+	 */
+	private final int[] nextHops;
+	/**
+	 * Heap of (distance, area) pairs used by the searches
+	 */
+	private long[] heap = new long[64];
+	private int heapSize;
+	/**
+	 * Areas reset by a repair
+	 */
+	private int[] reset = new int[64];
+
+	/**
+	 * Constructor, computing the whole field
+	 *
+	 * @param storage
+	 *            The areas, whose neighbour graph must be set
+	 */
+	public FlowField(AreaStorage storage) {
+		this.storage = storage;
+		this.graph = storage.getNeighbourGraph();
+		this.distances = new int[storage.size()];
+		this.nextHops = new int[storage.size()];
+		compute();
+	}
+
+	/**
+	 * Compute the whole field with a breadth-first search from all the
+	 * stations
+	 */
+	public synchronized void compute() {
+		Arrays.fill(distances, UNREACHABLE);
+		Arrays.fill(nextHops, NONE);
+		int[] queue = new int[distances.length];
+		int tail = 0;
+		AreaTypeIndex typeIndex = storage.getTypeIndex();
+		for (int station = typeIndex.next(AreaType.RECHARGE, 0); station >= 0; station = typeIndex
+				.next(AreaType.RECHARGE, station + 1)) {
+			distances[station] = 0;
+			queue[tail++] = station;
+		}
+		for (int head = 0; head < tail; head++) {
+			int area = queue[head];
+			int distance = distances[area] + 1;
+			for (int p = graph.firstNeighbour(area); p < graph.endNeighbour(area); p++) {
+				int neighbour = graph.neighbour(p);
+				if (distances[neighbour] == UNREACHABLE && storage.isAllowed(neighbour)) {
+					distances[neighbour] = distance;
+					nextHops[neighbour] = area;
+					queue[tail++] = neighbour;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Repair the field when an area changes between allowed, forbidden and
+	 * station
+	 */
+	@Override
+	public synchronized void typeChanged(int index, AreaType previous, AreaType type) {
+		if (Area.isAllowed(previous) == Area.isAllowed(type)
+				&& (previous == AreaType.RECHARGE) == (type == AreaType.RECHARGE))
+			return;
+		// Reset the area and all the areas whose path goes through it
+		int count = 0;
+		if (distances[index] != UNREACHABLE) {
+			distances[index] = UNREACHABLE;
+			nextHops[index] = NONE;
+			count = pushReset(0, index);
+			for (int i = 0; i < count; i++) {
+				int area = reset[i];
+				for (int p = graph.firstNeighbour(area); p < graph.endNeighbour(area); p++) {
+					int neighbour = graph.neighbour(p);
+					if (nextHops[neighbour] == area) {
+						distances[neighbour] = UNREACHABLE;
+						nextHops[neighbour] = NONE;
+						count = pushReset(count, neighbour);
+					}
+				}
+			}
+		} else {
+			count = pushReset(0, index);
+		}
+		// Restart the search from the valid neighbours of the reset areas
+		heapSize = 0;
+		for (int i = 0; i < count; i++) {
+			int area = reset[i];
+			if (!storage.isAllowed(area))
+				continue;
+			if (storage.getType(area) == AreaType.RECHARGE) {
+				distances[area] = 0;
+				offer(0, area);
+				continue;
+			}
+			for (int p = graph.firstNeighbour(area); p < graph.endNeighbour(area); p++) {
+				int neighbour = graph.neighbour(p);
+				if (distances[neighbour] != UNREACHABLE && distances[neighbour] + 1 < distances[area]) {
+					distances[area] = distances[neighbour] + 1;
+					nextHops[area] = neighbour;
+				}
+			}
+			if (distances[area] != UNREACHABLE)
+				offer(distances[area], area);
+		}
+		while (heapSize > 0) {
+			long top = poll();
+			int area = (int) top;
+			int distance = (int) (top >>> 32);
+			if (distance != distances[area])
+				continue;
+			for (int p = graph.firstNeighbour(area); p < graph.endNeighbour(area); p++) {
+				int neighbour = graph.neighbour(p);
+				if (distance + 1 < distances[neighbour] && storage.isAllowed(neighbour)) {
+					distances[neighbour] = distance + 1;
+					nextHops[neighbour] = area;
+					offer(distance + 1, neighbour);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the number of moves from an area to the closest station
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return the distance, or {@link #UNREACHABLE}
+	 */
+	public int getDistance(int index) {
+		return distances[index];
+	}
+
+	/**
+	 * Get the next area toward the closest station
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return the index of the next area, or {@link #NONE} on a station or if
+	 *         no station can be reached
+	 */
+	public int getNextHop(int index) {
+		return nextHops[index];
+	}
+
+	/**
+	 * Get the next area toward the closest station
+	 *
+	 * @param area
+	 *            the current area
+	 * @return the next area, or null on a station or if no station can be
+	 *         reached
+	 */
+	public Area getNextHop(Area area) {
+		int next = nextHops[area.getIndex()];
+		return next == NONE ? null : graph.getArea(next);
+	}
+
+	private int pushReset(int count, int area) {
+		if (count == reset.length)
+			reset = Arrays.copyOf(reset, count * 2);
+		reset[count] = area;
+		return count + 1;
+	}
+
+	private void offer(int distance, int area) {
+		if (heapSize == heap.length)
+			heap = Arrays.copyOf(heap, heapSize * 2);
+		long value = ((long) distance << 32) | area;
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= value)
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = value;
+	}
+
+	private long poll() {
+		long top = heap[0];
+		long last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child])
+				child++;
+			if (heap[child] >= last)
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		return top;
+	}
+}
@@ -0,0 +1,287 @@
+package sc6;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Execution of the passes over a grid stored row by row. The grid is cut into
+ * tiles of tileWidth x tileHeight cells, numbered in row order, and each tile
+ * is walked in row order. With a parallelism above 1, the tiles are shared
+ * between the threads of a fork-join pool.
+ *
+ * The reductions first reduce each tile, then combine the results of the
+ * tiles in tile order. Their result only depends on the tile size, so a sweep
+ * of parallelism 1 gives bit for bit the same sums as any other parallelism.
+ *
+ */
+public class GridSweep {
+	/**
+	 * Default number of cells of the tiles in width
+	 */
+	public static final int DEFAULT_TILE_WIDTH = 256;
+	/**
+	 * Default number of cells of the tiles in height
+	 */
+	public static final int DEFAULT_TILE_HEIGHT = 64;
+
+	/**
+	 * Sweep given to the new storages
+	 */
+	private static volatile GridSweep defaultSweep = new GridSweep(DEFAULT_TILE_WIDTH, DEFAULT_TILE_HEIGHT,
+			Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Action applied on a tile
+	 *
+	 */
+	public interface TileAction {
+		/**
+		 * Process the cells of a tile
+		 *
+		 * @param x0
+		 *            first column, included
+		 * @param y0
+		 *            first row, included
+		 * @param x1
+		 *            last column, excluded
+		 * @param y1
+		 *            last row, excluded
+		 */
+		void apply(int x0, int y0, int x1, int y1);
+	}
+
+	/**
+	 * Number of cells of the tiles in width
+	 */
+	private final int tileWidth;
+	/**
+	 * Number of cells of the tiles in height
+	 */
+	private final int tileHeight;
+	/**
+	 * Maximum number of threads processing the tiles
+	 */
+	private final int parallelism;
+	/**
+	 * Threads of the sweep, created on the first parallel pass
+	 */
+	private volatile ForkJoinPool pool;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tileWidth
+	 *            Number of cells of the tiles in width
+	 * @param tileHeight
+	 *            Number of cells of the tiles in height
+	 * @param parallelism
+	 *            Maximum number of threads, 1 to run on the calling thread
+	 */
+	public GridSweep(int tileWidth, int tileHeight, int parallelism) {
+		if (tileWidth <= 0 || tileHeight <= 0)
+			throw new IllegalArgumentException("Invalid tile size " + tileWidth + "x" + tileHeight);
+		if (parallelism <= 0)
+			throw new IllegalArgumentException("The parallelism must be positive: " + parallelism);
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Getter for the sweep given to the new storages
+	 *
+	 * @return the default sweep
+	 */
+	public static GridSweep getDefault() {
+		return defaultSweep;
+	}
+
+	/**
+	 * Set the sweep given to the new storages
+	 *
+	 * @param sweep
+	 *            the default sweep
+	 */
+	public static void setDefault(GridSweep sweep) {
+		defaultSweep = sweep;
+	}
+
+	public int getTileWidth() {
+		return tileWidth;
+	}
+
+	public int getTileHeight() {
+		return tileHeight;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Count the tiles of a grid
+	 *
+	 * @param width
+	 *            number of cells in width
+	 * @param height
+	 *            number of cells in height
+	 * @return the number of tiles
+	 */
+	public int tileCount(int width, int height) {
+		return tilesInWidth(width) * ((height + tileHeight - 1) / tileHeight);
+	}
+
+	private int tilesInWidth(int width) {
+		return (width + tileWidth - 1) / tileWidth;
+	}
+
+	/**
+	 * Apply an action on every tile of a grid. Tiles may be processed
+	 * concurrently, so the action must only write the cells of its tile.
+	 *
+	 * @param width
+	 *            number of cells in width
+	 * @param height
+	 *            number of cells in height
+	 * @param action
+	 *            the action applied on each tile
+	 */
+	public void forEachTile(int width, int height, TileAction action) {
+		int count = tileCount(width, height);
+		if (parallelism == 1 || count <= 1) {
+			for (int tile = 0; tile < count; tile++)
+				apply(width, height, tile, action);
+			return;
+		}
+		pool().invoke(new TileTask(width, height, 0, count, action));
+	}
+
+	/**
+	 * Apply an action on every cell of a grid, in row order inside each tile
+	 *
+	 * @param width
+	 *            number of cells in width
+	 * @param height
+	 *            number of cells in height
+	 * @param action
+	 *            the action applied on the index, y * width + x, of each cell
+	 */
+	public void forEach(int width, int height, IntConsumer action) {
+		forEachTile(width, height, (x0, y0, x1, y1) -> {
+			for (int y = y0; y < y1; y++)
+				for (int index = y * width + x0; index < y * width + x1; index++)
+					action.accept(index);
+		});
+	}
+
+	/**
+	 * Sum a value over every cell of a grid
+	 *
+	 * @param width
+	 *            number of cells in width
+	 * @param height
+	 *            number of cells in height
+	 * @param value
+	 *            the value of a cell, given its index y * width + x
+	 * @return the sum, the same for every parallelism
+	 */
+	public double sum(int width, int height, IntToDoubleFunction value) {
+		double[] partials = new double[tileCount(width, height)];
+		int columns = tilesInWidth(width);
+		forEachTile(width, height, (x0, y0, x1, y1) -> {
+			double sum = 0;
+			for (int y = y0; y < y1; y++)
+				for (int index = y * width + x0; index < y * width + x1; index++)
+					sum += value.applyAsDouble(index);
+			partials[y0 / tileHeight * columns + x0 / tileWidth] = sum;
+		});
+		double sum = 0;
+		for (double partial : partials)
+			sum += partial;
+		return sum;
+	}
+
+	/**
+	 * Find the highest value over every cell of a grid
+	 *
+	 * @param width
+	 *            number of cells in width
+	 * @param height
+	 *            number of cells in height
+	 * @param value
+	 *            the value of a cell, given its index y * width + x
+	 * @return the highest value, or negative infinity for an empty grid
+	 */
+	public double max(int width, int height, IntToDoubleFunction value) {
+		double[] partials = new double[tileCount(width, height)];
+		int columns = tilesInWidth(width);
+		forEachTile(width, height, (x0, y0, x1, y1) -> {
+			double max = Double.NEGATIVE_INFINITY;
+			for (int y = y0; y < y1; y++)
+				for (int index = y * width + x0; index < y * width + x1; index++)
+					max = Math.max(max, value.applyAsDouble(index));
+			partials[y0 / tileHeight * columns + x0 / tileWidth] = max;
+		});
+		double max = Double.NEGATIVE_INFINITY;
+		for (double partial : partials)
+			max = Math.max(max, partial);
+		return max;
+	}
+
+	private void apply(int width, int height, int tile, TileAction action) {
+		int columns = tilesInWidth(width);
+		int x0 = tile % columns * tileWidth;
+		int y0 = tile / columns * tileHeight;
+		action.apply(x0, y0, Math.min(x0 + tileWidth, width), Math.min(y0 + tileHeight, height));
+	}
+
+	private ForkJoinPool pool() {
+		ForkJoinPool current = pool;
+		if (current == null) {
+			synchronized (this) {
+				current = pool;
+				if (current == null) {
+					// The workers of the pool are daemon threads
+					current = new ForkJoinPool(parallelism);
+					pool = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Processing of a range of tiles, split in halves down to single tiles
+	 *
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int width;
+		private final int height;
+		private final int from;
+		private final int to;
+		private final TileAction action;
+
+		private TileTask(int width, int height, int from, int to, TileAction action) {
+			this.width = width;
+			this.height = height;
+			this.from = from;
+			this.to = to;
+			this.action = action;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				apply(width, height, from, action);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new TileTask(width, height, from, middle, action),
+					new TileTask(width, height, middle, to, action));
+		}
+	}
+}
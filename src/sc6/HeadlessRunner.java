@@ -0,0 +1,215 @@
+package sc6;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import fr.irit.smac.amak.Scheduling;
+
+/**
+ * Run a simulation without any display, as fast as possible, and print its
+ * throughput and final criticality statistics.
+ *
+ * Usage: HeadlessRunner [-cycles N] [-seed S] [-drones D] [-width W] [-height
+ * H] [-layout SQUARE|HEX] [-map FILE] [-threads T] [-tile S]
+ * [-profile FILE]
+ *
+ * A map file, as written by the {@link MapConverter}, replaces the size and
+ * the layout options. The threads and tile options set the execution of the
+ * passes over all the areas, see {@link GridSweep}. The profile option measures
+ * the phases of the cycles, appends their statistics to a CSV file every 10
+ * seconds and at the end of the run, and prints them.
+ *
+ */
+public class HeadlessRunner {
+	/**
+	 * Number of cycles to run
+	 */
+	private int cycles = 10000;
+	/**
+	 * Seed of the random generator of the world
+	 */
+	private long seed = 0;
+	/**
+	 * Number of drones created at the start
+	 */
+	private int drones = 5;
+	/**
+	 * Number of areas in width
+	 */
+	private int width = World.WIDTH;
+	/**
+	 * Number of areas in height
+	 */
+	private int height = World.HEIGHT;
+	/**
+	 * Layout of the areas
+	 */
+	private NeighbourGraph.Layout layout = NeighbourGraph.Layout.SQUARE;
+	/**
+	 * Map of the world, if any
+	 */
+	private Path map;
+	/**
+	 * Number of threads of the passes over the areas
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Number of areas in width and height of the tiles of these passes, 0 for
+	 * the default tiles
+	 */
+	private int tile;
+	/**
+	 * File the profile of the cycles is appended to, if any
+	 */
+	private Path profile;
+
+	/**
+	 * Launch a headless run
+	 * 
+	 * @param args
+	 *            Options of the run
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		HeadlessRunner runner = new HeadlessRunner();
+		try {
+			runner.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(
+					"Usage: HeadlessRunner [-cycles N] [-seed S] [-drones D] [-width W] [-height H] [-layout SQUARE|HEX] [-map FILE] [-threads T] [-tile S] [-profile FILE]");
+			System.exit(1);
+		}
+		try {
+			runner.run();
+		} catch (IOException e) {
+			System.err.println("Cannot read the map or write the profile: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Read the options of the run
+	 * 
+	 * @param args
+	 *            the command line arguments
+	 */
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + option);
+			String value = args[++i];
+			try {
+				switch (option) {
+				case "-cycles":
+					cycles = Integer.parseInt(value);
+					break;
+				case "-seed":
+					seed = Long.parseLong(value);
+					break;
+				case "-drones":
+					drones = Integer.parseInt(value);
+					break;
+				case "-width":
+					width = Integer.parseInt(value);
+					break;
+				case "-height":
+					height = Integer.parseInt(value);
+					break;
+				case "-layout":
+					layout = NeighbourGraph.Layout.valueOf(value.toUpperCase(Locale.ROOT));
+					break;
+				case "-map":
+					map = Paths.get(value);
+					break;
+				case "-threads":
+					threads = Integer.parseInt(value);
+					if (threads <= 0)
+						throw new NumberFormatException();
+					break;
+				case "-profile":
+					profile = Paths.get(value);
+					break;
+				case "-tile":
+					tile = Integer.parseInt(value);
+					if (tile <= 0)
+						throw new NumberFormatException();
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+			}
+		}
+	}
+
+	/**
+	 * Create the world and the AMAS, then cycle them without any scheduler
+	 * thread
+	 * 
+	 * @throws IOException
+	 *             if the map cannot be read or the profile cannot be written
+	 */
+	private void run() throws IOException {
+		GridSweep.setDefault(tile > 0 ? new GridSweep(tile, tile, threads)
+				: new GridSweep(GridSweep.DEFAULT_TILE_WIDTH, GridSweep.DEFAULT_TILE_HEIGHT, threads));
+		long start = System.nanoTime();
+		World world;
+		if (map != null) {
+			world = new World(Scheduling.HIDDEN, MapFile.read(map));
+			width = world.getWidth();
+			height = world.getHeight();
+			layout = world.getNeighbourGraph().getLayout();
+		} else {
+			world = new World(Scheduling.HIDDEN, width, height, layout);
+		}
+		world.setSeed(seed);
+		DrAmas drAmas = new DrAmas(world, Scheduling.HIDDEN, drones, false);
+		CycleProfiler profiler = drAmas.getProfiler();
+		if (profile != null) {
+			profiler.setEnabled(true);
+			profiler.register();
+			profiler.startDumping(profile, 10, TimeUnit.SECONDS);
+		}
+		long initialized = System.nanoTime();
+
+		drAmas.onSchedulingStarts();
+		try {
+			for (int i = 0; i < cycles; i++) {
+				world.cycle();
+				drAmas.cycle();
+			}
+		} finally {
+			drAmas.onSchedulingStops();
+		}
+		long end = System.nanoTime();
+		if (profile != null) {
+			profiler.stopDumping();
+			profiler.dump(profile);
+		}
+
+		CriticalityAggregator criticalities = world.getCriticalities();
+		double seconds = (end - initialized) / 1e9;
+		System.out.printf(Locale.ROOT, "World %dx%d (%s), %d drones, seed %d%n", width, height, layout,
+				drAmas.getAgents().size(), seed);
+		System.out.printf(Locale.ROOT, "Initialization: %.3f s%n", (initialized - start) / 1e9);
+		System.out.printf(Locale.ROOT, "Cycles: %d in %.3f s (%.1f cycles/s)%n", cycles, seconds, cycles / seconds);
+		System.out.printf(Locale.ROOT, "Criticality sum: %.4f%n", criticalities.getSum());
+		long scanStart = System.nanoTime();
+		double scannedSum = world.getStorage().sumCriticalities();
+		System.out.printf(Locale.ROOT, "Criticality sum (full scan, %d threads): %.4f in %.3f ms%n", threads,
+				scannedSum, (System.nanoTime() - scanStart) / 1e6);
+		System.out.printf(Locale.ROOT, "Criticality average: %.6f%n",
+				criticalities.getSum() / world.getStorage().size());
+		System.out.printf(Locale.ROOT, "Criticality max: %.4f%n", criticalities.getMax());
+		System.out.printf(Locale.ROOT, "Sliding average of the sum: %.4f%n", drAmas.getLastSums().getAverage(0));
+		System.out.printf(Locale.ROOT, "Drones destroyed by collisions: %d%n", drAmas.getCollisionDeaths());
+		if (profile != null)
+			System.out.print(profiler.report());
+	}
+}
@@ -0,0 +1,320 @@
+package sc6;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Geometry of a grid of pointy topped hexagons, laid out as the HEX layout of
+ * the {@link NeighbourGraph}: areas are addressed by offset coordinates
+ * (column, row), odd rows being shifted right by half a hexagon. Conversions
+ * to pixels go through axial coordinates (q, r), with q = column - (row -
+ * (row &amp; 1)) / 2 and r = row.
+ *
+ * The vertex offsets are computed once, so computing the vertices of a
+ * hexagon or adding it to a path does not allocate nor call any trigonometric
+ * function.
+ *
+ */
+public class HexGrid {
+	/**
+	 * Number of vertices of a hexagon
+	 */
+	public static final int SIDES = 6;
+
+	private static final double SQRT3 = Math.sqrt(3);
+
+	/**
+	 * X offsets of the vertices of a hexagon of radius 1, starting from the top
+	 * one, clockwise
+	 */
+	private static final double[] UNIT_X = new double[SIDES];
+	/**
+	 * Y offsets of the vertices of a hexagon of radius 1
+	 */
+	private static final double[] UNIT_Y = new double[SIDES];
+
+	static {
+		for (int p = 0; p < SIDES; p++) {
+			double angle = Math.toRadians(270 + 60 * p);
+			UNIT_X[p] = Math.cos(angle);
+			UNIT_Y[p] = Math.sin(angle);
+		}
+	}
+
+	/**
+	 * Number of areas in width
+	 */
+	private final int width;
+	/**
+	 * Number of areas in height
+	 */
+	private final int height;
+	/**
+	 * Distance between the center and the vertices of a hexagon
+	 */
+	private final double radius;
+	/**
+	 * Horizontal distance between the centers of two neighbours of a row
+	 */
+	private final double columnSpacing;
+	/**
+	 * Vertical distance between the centers of two consecutive rows
+	 */
+	private final double rowSpacing;
+	/**
+	 * X offsets of the vertices, scaled to the radius
+	 */
+	private final double[] vertexX = new double[SIDES];
+	/**
+	 * Y offsets of the vertices, scaled to the radius
+	 */
+	private final double[] vertexY = new double[SIDES];
+
+	/**
+	 * Constructor
+	 *
+	 * @param width
+	 *            Number of areas in width
+	 * @param height
+	 *            Number of areas in height
+	 * @param radius
+	 *            Distance between the center and the vertices of a hexagon, in
+	 *            pixels
+	 */
+	public HexGrid(int width, int height, double radius) {
+		this.width = width;
+		this.height = height;
+		this.radius = radius;
+		this.columnSpacing = SQRT3 * radius;
+		this.rowSpacing = 1.5 * radius;
+		for (int p = 0; p < SIDES; p++) {
+			vertexX[p] = UNIT_X[p] * radius;
+			vertexY[p] = UNIT_Y[p] * radius;
+		}
+	}
+
+	/**
+	 * Create the grid whose hexagons are as wide as the square areas of a
+	 * given size
+	 *
+	 * @param width
+	 *            Number of areas in width
+	 * @param height
+	 *            Number of areas in height
+	 * @param areaSize
+	 *            Width of a hexagon in pixels
+	 * @return the grid
+	 */
+	public static HexGrid ofAreaSize(int width, int height, int areaSize) {
+		return new HexGrid(width, height, areaSize / SQRT3);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public double getRadius() {
+		return radius;
+	}
+
+	/**
+	 * Getter for the width in pixels of the whole grid
+	 *
+	 * @return the width in pixels
+	 */
+	public int getPixelWidth() {
+		return (int) Math.ceil(columnSpacing * (width + 0.5));
+	}
+
+	/**
+	 * Getter for the height in pixels of the whole grid
+	 *
+	 * @return the height in pixels
+	 */
+	public int getPixelHeight() {
+		return height == 0 ? 0 : (int) Math.ceil(rowSpacing * (height - 1) + 2 * radius);
+	}
+
+	/**
+	 * Compute the X coordinate of the center of an area. The column may be
+	 * fractional for a drone moving between two areas.
+	 *
+	 * @param column
+	 *            the column of the area
+	 * @param row
+	 *            the row of the area
+	 * @return the X coordinate in pixels
+	 */
+	public double centerX(double column, int row) {
+		return columnSpacing * (column + 0.5 * (row & 1) + 0.5);
+	}
+
+	/**
+	 * Compute the Y coordinate of the center of the areas of a row
+	 *
+	 * @param row
+	 *            the row, possibly fractional
+	 * @return the Y coordinate in pixels
+	 */
+	public double centerY(double row) {
+		return radius + rowSpacing * row;
+	}
+
+	/**
+	 * Convert offset coordinates to the axial q coordinate
+	 *
+	 * @param column
+	 *            the column
+	 * @param row
+	 *            the row
+	 * @return the q coordinate
+	 */
+	public static int axialQ(int column, int row) {
+		return column - (row - (row & 1)) / 2;
+	}
+
+	/**
+	 * Convert axial coordinates to the offset column
+	 *
+	 * @param q
+	 *            the q coordinate
+	 * @param r
+	 *            the r coordinate, which is also the row
+	 * @return the column
+	 */
+	public static int offsetColumn(int q, int r) {
+		return q + (r - (r & 1)) / 2;
+	}
+
+	/**
+	 * Find the area containing a pixel
+	 *
+	 * @param px
+	 *            X coordinate in pixels
+	 * @param py
+	 *            Y coordinate in pixels
+	 * @return the index of the area, row * width + column, or -1 if the pixel
+	 *         is outside of the grid
+	 */
+	public int pixelToIndex(double px, double py) {
+		double x = px - columnSpacing / 2;
+		double y = py - radius;
+		double fq = (SQRT3 / 3 * x - y / 3) / radius;
+		double fr = (2.0 / 3 * y) / radius;
+		double fs = -fq - fr;
+		// Round the cube coordinates, fixing the one with the largest error
+		long q = Math.round(fq);
+		long r = Math.round(fr);
+		long s = Math.round(fs);
+		double dq = Math.abs(q - fq);
+		double dr = Math.abs(r - fr);
+		double ds = Math.abs(s - fs);
+		if (dq > dr && dq > ds)
+			q = -r - s;
+		else if (dr > ds)
+			r = -q - s;
+		if (r < 0 || r >= height)
+			return -1;
+		long column = q + (r - (r & 1)) / 2;
+		if (column < 0 || column >= width)
+			return -1;
+		return (int) (r * width + column);
+	}
+
+	/**
+	 * Compute the vertices of an area
+	 *
+	 * @param column
+	 *            the column of the area
+	 * @param row
+	 *            the row of the area
+	 * @param out
+	 *            buffer receiving x0, y0, x1, y1... of the 6 vertices
+	 */
+	public void vertices(int column, int row, double[] out) {
+		double cx = centerX(column, row);
+		double cy = centerY(row);
+		for (int p = 0; p < SIDES; p++) {
+			out[2 * p] = cx + vertexX[p];
+			out[2 * p + 1] = cy + vertexY[p];
+		}
+	}
+
+	/**
+	 * Add the outline of an area to a path
+	 *
+	 * @param path
+	 *            the path
+	 * @param column
+	 *            the column of the area
+	 * @param row
+	 *            the row of the area
+	 */
+	public void append(Path2D path, int column, int row) {
+		double cx = centerX(column, row);
+		double cy = centerY(row);
+		path.moveTo(cx + vertexX[0], cy + vertexY[0]);
+		for (int p = 1; p < SIDES; p++)
+			path.lineTo(cx + vertexX[p], cy + vertexY[p]);
+		path.closePath();
+	}
+
+	/**
+	 * Add the outlines of several areas to a path, so that they are drawn or
+	 * filled at once
+	 *
+	 * @param path
+	 *            the path
+	 * @param indexes
+	 *            the indexes of the areas, row * width + column
+	 * @param from
+	 *            first position in indexes, included
+	 * @param to
+	 *            last position in indexes, excluded
+	 */
+	public void appendAll(Path2D path, int[] indexes, int from, int to) {
+		for (int i = from; i < to; i++)
+			append(path, indexes[i] % width, indexes[i] / width);
+	}
+
+	/**
+	 * Add the outlines of the areas intersecting a rectangle to a path
+	 *
+	 * @param path
+	 *            the path
+	 * @param clip
+	 *            the visible rectangle, in pixels
+	 */
+	public void appendVisible(Path2D path, Rectangle2D clip) {
+		int firstRow = Math.max(0, (int) Math.floor((clip.getMinY() - 2 * radius) / rowSpacing));
+		int lastRow = Math.min(height - 1, (int) Math.ceil(clip.getMaxY() / rowSpacing));
+		int firstColumn = Math.max(0, (int) Math.floor(clip.getMinX() / columnSpacing) - 1);
+		int lastColumn = Math.min(width - 1, (int) Math.ceil(clip.getMaxX() / columnSpacing));
+		for (int row = firstRow; row <= lastRow; row++)
+			for (int column = firstColumn; column <= lastColumn; column++)
+				append(path, column, row);
+	}
+
+	/**
+	 * Add a hexagon of any center and radius to a path
+	 *
+	 * @param path
+	 *            the path
+	 * @param cx
+	 *            X coordinate of the center
+	 * @param cy
+	 *            Y coordinate of the center
+	 * @param radius
+	 *            distance between the center and the vertices
+	 */
+	public static void appendHexagon(Path2D path, double cx, double cy, double radius) {
+		path.moveTo(cx + UNIT_X[0] * radius, cy + UNIT_Y[0] * radius);
+		for (int p = 1; p < SIDES; p++)
+			path.lineTo(cx + UNIT_X[p] * radius, cy + UNIT_Y[p] * radius);
+		path.closePath();
+	}
+}
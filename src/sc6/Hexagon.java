@@ -7,7 +7,6 @@ import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.Shape;
 import java.awt.Stroke;
-import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 
 public class Hexagon extends Polygon {
@@ -16,47 +15,42 @@ public class Hexagon extends Polygon {
 
     public static final int SIDES = 6;
 
-    private Point[] points = new Point[SIDES];
-    private Point2D[] points2D = new Point2D[SIDES];
-    private Point center = new Point(0, 0);
-    private Point2D center2D = new Point(0, 0);
+    private double centerX;
+    private double centerY;
     private int radius;
     private int rotation = 90;
-    
-    private Double[] xpoints2D;
-    private Double[] ypoints2D;
 
-    public Hexagon(Point center, int radius) {
-        npoints = SIDES;
-        xpoints = new int[SIDES];
-        ypoints = new int[SIDES];
+    /**
+     * Offsets of the vertices for a radius of 1, only recomputed when the
+     * rotation changes
+     */
+    private final double[] unitX = new double[SIDES];
+    private final double[] unitY = new double[SIDES];
 
-        this.center = center;
-        this.radius = radius;
-
-        updatePoints();
+    public Hexagon(Point center, int radius) {
+        this(center.x, center.y, radius);
     }
     
     public Hexagon(Point2D center, int radius) {
-        npoints = SIDES;
-        xpoints2D = new Double[SIDES];
-        ypoints2D = new Double[SIDES];
-
-        this.center2D = center;
-        this.radius = radius;
-
-        updatePoints2D();
+        this(center.getX(), center.getY(), radius);
     }
 
     public Hexagon(int x, int y, int radius) {
-        this(new Point(x, y), radius);
+        this((double) x, (double) y, radius);
     }
     
     public Hexagon(double x, double y, int radius) {
-        this(new Point2D.Double(x, y), radius);
+        npoints = SIDES;
+        xpoints = new int[SIDES];
+        ypoints = new int[SIDES];
+
+        this.centerX = x;
+        this.centerY = y;
+        this.radius = radius;
+
+        updateUnits();
+        updatePoints();
     }
-    
-    
 
     public int getRadius() {
         return radius;
@@ -75,54 +69,40 @@ public class Hexagon extends Polygon {
     public void setRotation(int rotation) {
         this.rotation = rotation;
 
+        updateUnits();
         updatePoints();
     }
 
     public void setCenter(Point center) {
-        this.center = center;
-
-        updatePoints();
+        setCenter(center.x, center.y);
     }
 
     public void setCenter(int x, int y) {
-        setCenter(new Point(x, y));
+        this.centerX = x;
+        this.centerY = y;
+
+        updatePoints();
     }
 
     private double findAngle(double fraction) {
         return fraction * Math.PI * 2 + Math.toRadians((rotation + 180) % 360);
     }
 
-    private Point findPoint(double angle) {
-        int x = (int) (center.x + Math.cos(angle) *radius);
-        int y = (int) (center.y + Math.sin(angle)*radius);
-
-        return new Point(x, y);
-    }
-    private Point2D findPoint2D(double angle) {
-        int x = (int) (center2D.getX() + Math.cos(angle) *radius);
-        int y = (int) (center2D.getY() + Math.sin(angle)*radius);
-
-        return new Point2D.Double(x, y);
-    }
-
-    protected void updatePoints() {
+    private void updateUnits() {
         for (int p = 0; p < SIDES; p++) {
             double angle = findAngle((double) p / SIDES);
-            Point point = findPoint(angle);
-            xpoints[p] = point.x;
-            ypoints[p] = point.y;
-            points[p] = point;
+            unitX[p] = Math.cos(angle);
+            unitY[p] = Math.sin(angle);
         }
     }
-    
-    protected void updatePoints2D() {
+
+    protected void updatePoints() {
         for (int p = 0; p < SIDES; p++) {
-            double angle = findAngle((double) p / SIDES);
-            Point2D point = findPoint2D(angle);
-            xpoints2D[p] = point.getX();
-            ypoints2D[p] = point.getY();
-            points2D[p] = point;
+            xpoints[p] = (int) (centerX + unitX[p] * radius);
+            ypoints[p] = (int) (centerY + unitY[p] * radius);
         }
+        // The cached bounds of the polygon are outdated
+        invalidate();
     }
 
     public void draw(Graphics2D g, int x, int y, int lineThickness, boolean filled) {
@@ -0,0 +1,217 @@
+package sc6;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+import sc6.Area.AreaType;
+
+/**
+ * Conversion of a map drawn as text or as an image to a binary
+ * {@link MapFile}.
+ *
+ * In a text map, each character is an area and each line a row. Lines
+ * starting with ';' are comments. The characters are:
+ * <ul>
+ * <li>'#' GEOFENCEE, 'X' FORBIDDEN, '.' ALLOWED, 'W' WAITING, 'P'
+ * PREPARATION, 'R' RECHARGE</li>
+ * <li>'S' SURVEY with the default outdate factor, or a digit from '1' to '9'
+ * for a SURVEY area with an outdate factor of digit / 10</li>
+ * </ul>
+ * Shorter rows are completed with GEOFENCEE areas.
+ *
+ * In an image, each pixel is an area, colored with the standard AWT colors:
+ * dark gray GEOFENCEE, black FORBIDDEN, light gray ALLOWED, orange WAITING,
+ * magenta PREPARATION, yellow RECHARGE and green SURVEY. Other colors are
+ * rejected. These are not the colors of the {@link WorldViewer}, which draws
+ * WAITING areas like ALLOWED ones and SURVEY areas by age, so its captures
+ * cannot be converted back.
+ *
+ * Usage: MapConverter INPUT OUTPUT [-layout SQUARE|HEX] [-factor F], where
+ * INPUT is a .txt file, an image, or "default:WxH" for the built-in layout.
+ *
+ */
+public class MapConverter {
+	/**
+	 * Prefix of the input designating the built-in layout
+	 */
+	private static final String DEFAULT_INPUT = "default:";
+
+	private int width;
+	private int height;
+	private AreaType[] types;
+	private float[] factors;
+
+	/**
+	 * Launch a conversion
+	 *
+	 * @param args
+	 *            Input, output and options of the conversion
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: MapConverter INPUT OUTPUT [-layout SQUARE|HEX] [-factor F]");
+			System.exit(1);
+		}
+		NeighbourGraph.Layout layout = NeighbourGraph.Layout.SQUARE;
+		float factor = Area.DEFAULT_OUTDATE_FACTOR;
+		try {
+			for (int i = 2; i < args.length; i++) {
+				String option = args[i];
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + option);
+				String value = args[++i];
+				switch (option) {
+				case "-layout":
+					layout = NeighbourGraph.Layout.valueOf(value.toUpperCase(Locale.ROOT));
+					break;
+				case "-factor":
+					factor = Float.parseFloat(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+			MapConverter converter = new MapConverter();
+			converter.convert(args[0], factor);
+			MapFile.write(Paths.get(args[1]), converter.width, converter.height, layout, converter.types,
+					converter.factors);
+			System.out.printf(Locale.ROOT, "Wrote a %dx%d %s map to %s%n", converter.width, converter.height,
+					layout, args[1]);
+		} catch (IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Read the areas of an input
+	 *
+	 * @param input
+	 *            the input
+	 * @param factor
+	 *            the default outdate factor
+	 * @throws IOException
+	 *             if the input cannot be read
+	 */
+	private void convert(String input, float factor) throws IOException {
+		if (input.startsWith(DEFAULT_INPUT)) {
+			String[] size = input.substring(DEFAULT_INPUT.length()).split("x");
+			if (size.length != 2)
+				throw new IllegalArgumentException("Expected " + DEFAULT_INPUT + "WxH");
+			convertDefault(Integer.parseInt(size[0]), Integer.parseInt(size[1]), factor);
+		} else if (input.toLowerCase(Locale.ROOT).endsWith(".txt")) {
+			convertText(Paths.get(input), factor);
+		} else {
+			BufferedImage image = ImageIO.read(Paths.get(input).toFile());
+			if (image == null)
+				throw new IOException("Unsupported image " + input);
+			convertImage(image, factor);
+		}
+	}
+
+	private void allocate(int width, int height) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Empty map");
+		this.width = width;
+		this.height = height;
+		types = new AreaType[width * height];
+		factors = new float[width * height];
+	}
+
+	private void convertDefault(int width, int height, float factor) {
+		allocate(width, height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				types[y * width + x] = Area.defaultType(x, y, width, height);
+				factors[y * width + x] = factor;
+			}
+		}
+	}
+
+	private void convertText(Path path, float factor) throws IOException {
+		List<String> rows = new ArrayList<>();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8))
+			if (!line.startsWith(";"))
+				rows.add(line);
+		while (!rows.isEmpty() && rows.get(rows.size() - 1).isEmpty())
+			rows.remove(rows.size() - 1);
+		int columns = 0;
+		for (String row : rows)
+			columns = Math.max(columns, row.length());
+		allocate(columns, rows.size());
+		for (int y = 0; y < height; y++) {
+			String row = rows.get(y);
+			for (int x = 0; x < width; x++) {
+				int index = y * width + x;
+				char c = x < row.length() ? row.charAt(x) : '#';
+				factors[index] = factor;
+				if (c >= '1' && c <= '9') {
+					types[index] = AreaType.SURVEY;
+					factors[index] = (c - '0') / 10f;
+				} else {
+					types[index] = typeOf(c, x, y);
+				}
+			}
+		}
+	}
+
+	private static AreaType typeOf(char c, int x, int y) {
+		switch (c) {
+		case '#':
+			return AreaType.GEOFENCEE;
+		case 'X':
+			return AreaType.FORBIDDEN;
+		case '.':
+			return AreaType.ALLOWED;
+		case 'W':
+			return AreaType.WAITING;
+		case 'P':
+			return AreaType.PREPARATION;
+		case 'R':
+			return AreaType.RECHARGE;
+		case 'S':
+			return AreaType.SURVEY;
+		default:
+			throw new IllegalArgumentException("Unknown area '" + c + "' at " + x + "," + y);
+		}
+	}
+
+	private void convertImage(BufferedImage image, float factor) {
+		allocate(image.getWidth(), image.getHeight());
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				types[y * width + x] = typeOf(new Color(image.getRGB(x, y)), x, y);
+				factors[y * width + x] = factor;
+			}
+		}
+	}
+
+	private static AreaType typeOf(Color color, int x, int y) {
+		if (color.equals(Color.DARK_GRAY))
+			return AreaType.GEOFENCEE;
+		if (color.equals(Color.BLACK))
+			return AreaType.FORBIDDEN;
+		if (color.equals(Color.LIGHT_GRAY))
+			return AreaType.ALLOWED;
+		if (color.equals(Color.ORANGE))
+			return AreaType.WAITING;
+		if (color.equals(Color.MAGENTA))
+			return AreaType.PREPARATION;
+		if (color.equals(Color.YELLOW))
+			return AreaType.RECHARGE;
+		if (color.equals(Color.GREEN))
+			return AreaType.SURVEY;
+		throw new IllegalArgumentException("Unknown area color " + Integer.toHexString(color.getRGB()) + " at " + x
+				+ "," + y);
+	}
+}
@@ -0,0 +1,285 @@
+package sc6;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import sc6.Area.AreaType;
+
+/**
+ * Map of the world stored in a compact binary file, read through a memory
+ * mapping so that opening even a very large map does not copy it.
+ *
+ * The file holds, in big endian order:
+ * <ul>
+ * <li>the magic number "SC6M" and the version of the format (int)</li>
+ * <li>the width and the height (int) and the layout ordinal (byte)</li>
+ * <li>the number of distinct outdate factors (unsigned byte, 0 meaning 256)
+ * followed by these factors (float, not negative)</li>
+ * <li>the type ordinal of each area (byte), row by row</li>
+ * <li>the index of the outdate factor of each area (unsigned byte), row by
+ * row</li>
+ * </ul>
+ *
+ */
+public class MapFile {
+	/**
+	 * "SC6M"
+	 */
+	private static final int MAGIC = 0x5343364D;
+	/**
+	 * Version of the format
+	 */
+	private static final int VERSION = 1;
+	/**
+	 * Size of the header before the outdate factors
+	 */
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 1 + 1;
+	/**
+	 * Maximum number of distinct outdate factors
+	 */
+	public static final int MAX_FACTORS = 256;
+
+	private static final AreaType[] TYPES = AreaType.values();
+	private static final NeighbourGraph.Layout[] LAYOUTS = NeighbourGraph.Layout.values();
+
+	/**
+	 * Number of areas in width
+	 */
+	private final int width;
+	/**
+	 * Number of areas in height
+	 */
+	private final int height;
+	/**
+	 * The layout of the areas
+	 */
+	private final NeighbourGraph.Layout layout;
+	/**
+	 * The distinct outdate factors
+	 */
+	private final float[] factors;
+	/**
+	 * Type ordinal of each area
+	 */
+	private final ByteBuffer types;
+	/**
+	 * Outdate factor index of each area
+	 */
+	private final ByteBuffer factorIndexes;
+
+	/**
+	 * Parse and check a map
+	 *
+	 * @param buffer
+	 *            the content of the map
+	 * @throws IOException
+	 *             if the content is not a valid map
+	 */
+	private MapFile(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+			throw new IOException("Not a map file");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported map version " + version);
+		width = buffer.getInt();
+		height = buffer.getInt();
+		int layoutOrdinal = buffer.get();
+		int factorCount = buffer.get() & 0xFF;
+		if (factorCount == 0)
+			factorCount = MAX_FACTORS;
+		if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE)
+			throw new IOException("Invalid map size " + width + "x" + height);
+		if (layoutOrdinal < 0 || layoutOrdinal >= LAYOUTS.length)
+			throw new IOException("Invalid layout " + layoutOrdinal);
+		layout = LAYOUTS[layoutOrdinal];
+		int size = width * height;
+		if (buffer.remaining() != 4L * factorCount + 2L * size)
+			throw new IOException("Invalid map length");
+		factors = new float[factorCount];
+		for (int i = 0; i < factorCount; i++) {
+			factors[i] = buffer.getFloat();
+			if (!(factors[i] >= 0))
+				throw new IOException("Negative outdate factor " + factors[i]);
+		}
+		types = slice(buffer, size);
+		factorIndexes = slice(buffer, size);
+		for (int i = 0; i < size; i++) {
+			int type = types.get(i);
+			if (type < 0 || type >= TYPES.length)
+				throw new IOException("Invalid type " + type + " at index " + i);
+			if ((factorIndexes.get(i) & 0xFF) >= factorCount)
+				throw new IOException("Invalid outdate factor at index " + i);
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice;
+	}
+
+	/**
+	 * Open a map file
+	 *
+	 * @param path
+	 *            the path of the file
+	 * @return the map
+	 * @throws IOException
+	 *             if the file cannot be read or is not a valid map
+	 */
+	public static MapFile read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// The mapping stays valid once the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new MapFile(buffer);
+		}
+	}
+
+	/**
+	 * Write a map file
+	 *
+	 * @param path
+	 *            the path of the file
+	 * @param width
+	 *            number of areas in width
+	 * @param height
+	 *            number of areas in height
+	 * @param layout
+	 *            the layout of the areas
+	 * @param types
+	 *            the type of each area, row by row
+	 * @param outdateFactors
+	 *            the outdate factor of each area, row by row, not negative
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void write(Path path, int width, int height, NeighbourGraph.Layout layout, AreaType[] types,
+			float[] outdateFactors) throws IOException {
+		ByteBuffer buffer = encode(width, height, layout, types, outdateFactors);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Create a map in memory
+	 *
+	 * @param width
+	 *            number of areas in width
+	 * @param height
+	 *            number of areas in height
+	 * @param layout
+	 *            the layout of the areas
+	 * @param types
+	 *            the type of each area, row by row
+	 * @param outdateFactors
+	 *            the outdate factor of each area, row by row, not negative
+	 * @return the map
+	 */
+	public static MapFile of(int width, int height, NeighbourGraph.Layout layout, AreaType[] types,
+			float[] outdateFactors) {
+		try {
+			return new MapFile(encode(width, height, layout, types, outdateFactors));
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+
+	private static ByteBuffer encode(int width, int height, NeighbourGraph.Layout layout, AreaType[] types,
+			float[] outdateFactors) {
+		int size = width * height;
+		if (types.length != size || outdateFactors.length != size)
+			throw new IllegalArgumentException("Expected " + size + " areas");
+		float[] distinct = distinctFactors(outdateFactors);
+		for (float factor : distinct)
+			if (!(factor >= 0))
+				throw new IllegalArgumentException("The outdate factor must not be negative: " + factor);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * distinct.length + 2 * size);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+		buffer.put((byte) layout.ordinal()).put((byte) distinct.length);
+		for (float factor : distinct)
+			buffer.putFloat(factor);
+		for (AreaType type : types)
+			buffer.put((byte) type.ordinal());
+		for (float factor : outdateFactors)
+			buffer.put((byte) Arrays.binarySearch(distinct, factor));
+		buffer.flip();
+		return buffer;
+	}
+
+	private static float[] distinctFactors(float[] outdateFactors) {
+		float[] sorted = outdateFactors.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0; i < sorted.length; i++)
+			if (i == 0 || Float.compare(sorted[i], sorted[count - 1]) != 0)
+				sorted[count++] = sorted[i];
+		if (count > MAX_FACTORS)
+			throw new IllegalArgumentException("At most " + MAX_FACTORS + " distinct outdate factors are supported");
+		return Arrays.copyOf(sorted, count);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public NeighbourGraph.Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Get the type of an area
+	 *
+	 * @param index
+	 *            the index of the area, y * width + x
+	 * @return the type
+	 */
+	public AreaType getType(int index) {
+		return TYPES[types.get(index)];
+	}
+
+	/**
+	 * Get the outdate factor of an area
+	 *
+	 * @param index
+	 *            the index of the area, y * width + x
+	 * @return the outdate factor
+	 */
+	public float getOutdateFactor(int index) {
+		return factors[factorIndexes.get(index) & 0xFF];
+	}
+
+	/**
+	 * Copy the type ordinals of all the areas
+	 *
+	 * @param out
+	 *            the destination, of width * height elements
+	 */
+	public void copyTypes(byte[] out) {
+		types.duplicate().get(out);
+	}
+
+	/**
+	 * Copy the outdate factors of all the areas
+	 *
+	 * @param out
+	 *            the destination, of width * height elements
+	 */
+	public void copyOutdateFactors(float[] out) {
+		ByteBuffer indexes = factorIndexes.duplicate();
+		for (int i = 0; i < out.length; i++)
+			out[i] = factors[indexes.get(i) & 0xFF];
+	}
+}
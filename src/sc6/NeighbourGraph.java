@@ -0,0 +1,258 @@
+package sc6;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adjacency of the areas of the world, built once at the initialization and
+ * stored as a compressed sparse row graph: the neighbours of the area of index
+ * i are the area indexes targets[offsets[i]] to targets[offsets[i + 1] - 1].
+ *
+ */
+public class NeighbourGraph {
+
+	/**
+	 * How the areas are laid out
+	 */
+	public enum Layout {
+		/**
+		 * Square areas, each one connected to its 8 surrounding areas
+		 */
+		SQUARE,
+		/**
+		 * Pointy topped hexagonal areas with odd rows shifted right, each one
+		 * connected to 6 areas
+		 */
+		HEX
+	}
+
+	/**
+	 * Offsets of the 8 surrounding areas, in the order of the square layout
+	 */
+	private static final int[][] SQUARE_OFFSETS = { { -1, -1 }, { 1, -1 }, { 1, 0 }, { 1, 1 }, { -1, 1 }, { -1, 0 },
+			{ 0, 1 }, { 0, -1 } };
+	/**
+	 * Offsets of the 6 surrounding areas of an even row in the hex layout
+	 */
+	private static final int[][] HEX_EVEN_OFFSETS = { { -1, -1 }, { 0, -1 }, { 1, 0 }, { 0, 1 }, { -1, 1 }, { -1, 0 } };
+	/**
+	 * Offsets of the 6 surrounding areas of an odd row in the hex layout
+	 */
+	private static final int[][] HEX_ODD_OFFSETS = { { 0, -1 }, { 1, -1 }, { 1, 0 }, { 1, 1 }, { 0, 1 }, { -1, 0 } };
+
+	/**
+	 * The layout of the areas
+	 */
+	private final Layout layout;
+	/**
+	 * Number of areas in width
+	 */
+	private final int width;
+	/**
+	 * Number of areas in height
+	 */
+	private final int height;
+	/**
+	 * The areas, by index
+	 */
+	private final Area[] areas;
+	/**
+	 * First neighbour of each area in {@link #targets}
+	 */
+	private final int[] offsets;
+	/**
+	 * Indexes of the neighbours of all the areas
+	 */
+	private final int[] targets;
+
+	/**
+	 * Build the graph of a grid of areas
+	 *
+	 * @param layout
+	 *            The layout of the areas
+	 * @param areas
+	 *            The areas, indexed by [y][x]
+	 */
+	public NeighbourGraph(Layout layout, Area[][] areas) {
+		this.layout = layout;
+		this.height = areas.length;
+		this.width = height == 0 ? 0 : areas[0].length;
+		this.areas = new Area[width * height];
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				this.areas[y * width + x] = areas[y][x];
+		this.offsets = new int[width * height + 1];
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				offsets[y * width + x + 1] = offsets[y * width + x] + countNeighbours(x, y);
+		this.targets = new int[offsets[width * height]];
+		int t = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				for (int[] offset : offsetsOf(y)) {
+					int nx = x + offset[0];
+					int ny = y + offset[1];
+					if (contains(nx, ny))
+						targets[t++] = ny * width + nx;
+				}
+			}
+		}
+	}
+
+	private int countNeighbours(int x, int y) {
+		int count = 0;
+		for (int[] offset : offsetsOf(y))
+			if (contains(x + offset[0], y + offset[1]))
+				count++;
+		return count;
+	}
+
+	private int[][] offsetsOf(int y) {
+		if (layout == Layout.SQUARE)
+			return SQUARE_OFFSETS;
+		return (y & 1) == 0 ? HEX_EVEN_OFFSETS : HEX_ODD_OFFSETS;
+	}
+
+	/**
+	 * Check if a coordinate is inside the grid
+	 *
+	 * @param x
+	 *            X coordinate
+	 * @param y
+	 *            Y coordinate
+	 * @return true if the coordinate is inside
+	 */
+	public boolean contains(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	/**
+	 * Getter for the layout of the areas
+	 *
+	 * @return the layout
+	 */
+	public Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Get the area at a given coordinate
+	 *
+	 * @param x
+	 *            X coordinate
+	 * @param y
+	 *            Y coordinate
+	 * @return the area, or null if outside of the grid
+	 */
+	public Area getArea(int x, int y) {
+		return contains(x, y) ? areas[y * width + x] : null;
+	}
+
+	/**
+	 * Get the neighbour of an area in a given direction. In the square layout,
+	 * it is the area at the given offset. In the hex layout, the diagonal
+	 * directions give the neighbours of the adjacent rows, whose columns
+	 * depend on the parity of the row, and straight up or down there is no
+	 * neighbour.
+	 *
+	 * @param x
+	 *            X coordinate of the area
+	 * @param y
+	 *            Y coordinate of the area
+	 * @param dx
+	 *            the direction on the X axis, -1, 0 or 1
+	 * @param dy
+	 *            the direction on the Y axis, -1, 0 or 1
+	 * @return the neighbour, or null if there is none in this direction
+	 */
+	public Area getNeighbour(int x, int y, int dx, int dy) {
+		if (layout == Layout.SQUARE || dy == 0)
+			return getArea(x + dx, y + dy);
+		if (dx == 0)
+			return null;
+		// Odd rows are shifted right, so their diagonal neighbours are too
+		int shift = y & 1;
+		return getArea(x + (dx < 0 ? shift - 1 : shift), y + dy);
+	}
+
+	/**
+	 * Get the area of a given index
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return the area
+	 */
+	public Area getArea(int index) {
+		return areas[index];
+	}
+
+	/**
+	 * Getter for the number of areas
+	 *
+	 * @return the number of areas
+	 */
+	public int size() {
+		return areas.length;
+	}
+
+	/**
+	 * Get the position of the first neighbour of an area in the targets
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return the first position
+	 */
+	public int firstNeighbour(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * Get the position following the last neighbour of an area in the targets
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return the end position
+	 */
+	public int endNeighbour(int index) {
+		return offsets[index + 1];
+	}
+
+	/**
+	 * Get the area index at a given position of the targets
+	 *
+	 * @param position
+	 *            the position, between the first and end neighbour of an area
+	 * @return the index of the neighbour
+	 */
+	public int neighbour(int position) {
+		return targets[position];
+	}
+
+	/**
+	 * Get a read-only view on the neighbours of an area
+	 *
+	 * @param index
+	 *            the index of the area
+	 * @return the neighbours
+	 */
+	public List<Area> getNeighbours(int index) {
+		final int first = offsets[index];
+		final int size = offsets[index + 1] - first;
+		if (size == 0)
+			return Collections.emptyList();
+		return new AbstractList<Area>() {
+			@Override
+			public Area get(int i) {
+				if (i < 0 || i >= size)
+					throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+				return areas[targets[first + i]];
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,268 @@
+package sc6;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import fr.irit.smac.amak.Agent;
+
+/**
+ * Index of the drones present in each area of the world. Each area holds the
+ * head of an intrusive linked list of drone slots, so finding the drones of an
+ * area costs O(occupants) and moving a drone costs O(1).
+ *
+ */
+public class OccupancyIndex {
+	/**
+	 * Marker of the end of a list
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * Number of areas in width
+	 */
+	private final int width;
+	/**
+	 * Number of areas in height
+	 */
+	private final int height;
+	/**
+	 * First drone slot of each area
+	 */
+	private final int[] heads;
+	/**
+	 * Slot of each indexed drone
+	 */
+	private final Map<Drone, Integer> slots = new IdentityHashMap<>();
+	/**
+	 * Drone of each slot
+	 */
+	private Drone[] drones = new Drone[16];
+	/**
+	 * Area index of each slot, NONE for a free slot
+	 */
+	private int[] areas = new int[16];
+	/**
+	 * Next slot in the same area, or next free slot
+	 */
+	private int[] next = new int[16];
+	/**
+	 * Previous slot in the same area
+	 */
+	private int[] previous = new int[16];
+	/**
+	 * Last refresh in which each slot has been found
+	 */
+	private int[] refreshes = new int[16];
+	/**
+	 * Number of slots ever used
+	 */
+	private int used;
+	/**
+	 * First free slot
+	 */
+	private int free = NONE;
+	/**
+	 * Number of refreshes done
+	 */
+	private int refresh;
+
+	/**
+	 * Constructor
+	 *
+	 * @param storage
+	 *            The storage of the indexed areas
+	 */
+	public OccupancyIndex(AreaStorage storage) {
+		this.width = storage.getWidth();
+		this.height = storage.getHeight();
+		this.heads = new int[storage.size()];
+		Arrays.fill(heads, NONE);
+	}
+
+	/**
+	 * Update the area of a drone, adding it to the index if needed
+	 *
+	 * @param drone
+	 *            The drone
+	 * @param area
+	 *            The area where the drone is, or null to remove it
+	 */
+	public synchronized void move(Drone drone, Area area) {
+		if (area == null) {
+			remove(drone);
+			return;
+		}
+		Integer slot = slots.get(drone);
+		if (slot == null) {
+			int s = allocate(drone);
+			link(s, area.getIndex());
+			slots.put(drone, s);
+		} else if (areas[slot] != area.getIndex()) {
+			unlink(slot);
+			link(slot, area.getIndex());
+		}
+	}
+
+	/**
+	 * Remove a drone from the index
+	 *
+	 * @param drone
+	 *            The drone
+	 */
+	public synchronized void remove(Drone drone) {
+		Integer slot = slots.remove(drone);
+		if (slot != null)
+			release(slot);
+	}
+
+	/**
+	 * Synchronize the index with the current areas of the agents. Drones
+	 * which are not agents anymore are removed.
+	 *
+	 * @param agents
+	 *            The agents of the AMAS
+	 */
+	public synchronized void refresh(List<? extends Agent<?, World>> agents) {
+		refresh++;
+		for (Agent<?, World> agent : agents) {
+			Drone drone = (Drone) agent;
+			move(drone, drone.getCurrentArea());
+			Integer slot = slots.get(drone);
+			if (slot != null)
+				refreshes[slot] = refresh;
+		}
+		for (int s = 0; s < used; s++) {
+			if (areas[s] != NONE && refreshes[s] != refresh) {
+				slots.remove(drones[s]);
+				release(s);
+			}
+		}
+	}
+
+	/**
+	 * Count the drones present in an area
+	 *
+	 * @param area
+	 *            The area
+	 * @return the number of drones
+	 */
+	public synchronized int count(Area area) {
+		int count = 0;
+		for (int s = heads[area.getIndex()]; s != NONE; s = next[s])
+			count++;
+		return count;
+	}
+
+	/**
+	 * Visit the drones present in an area
+	 *
+	 * @param area
+	 *            The area
+	 * @param visitor
+	 *            Action applied on each drone
+	 */
+	public synchronized void forEach(Area area, Consumer<Drone> visitor) {
+		for (int s = heads[area.getIndex()]; s != NONE; s = next[s])
+			visitor.accept(drones[s]);
+	}
+
+	/**
+	 * Visit the drones present in an area and in its eight surrounding areas
+	 *
+	 * @param area
+	 *            The central area
+	 * @param visitor
+	 *            Action applied on each drone
+	 */
+	public synchronized void forEachAround(Area area, Consumer<Drone> visitor) {
+		int x = area.getX();
+		int y = area.getY();
+		for (int dy = Math.max(0, y - 1); dy <= Math.min(height - 1, y + 1); dy++)
+			for (int dx = Math.max(0, x - 1); dx <= Math.min(width - 1, x + 1); dx++)
+				for (int s = heads[dy * width + dx]; s != NONE; s = next[s])
+					visitor.accept(drones[s]);
+	}
+
+	/**
+	 * Get the drones present in an area
+	 *
+	 * @param area
+	 *            The area
+	 * @return the list of drones in this area
+	 */
+	public synchronized List<Drone> getDrones(Area area) {
+		List<Drone> res = new ArrayList<>(count(area));
+		for (int s = heads[area.getIndex()]; s != NONE; s = next[s])
+			res.add(drones[s]);
+		return res;
+	}
+
+	/**
+	 * Get the drones present in an area, in a new array
+	 *
+	 * @param area
+	 *            The area
+	 * @return the drones in this area
+	 */
+	public synchronized Drone[] toArray(Area area) {
+		Drone[] res = new Drone[count(area)];
+		int i = 0;
+		for (int s = heads[area.getIndex()]; s != NONE; s = next[s])
+			res[i++] = drones[s];
+		return res;
+	}
+
+	private int allocate(Drone drone) {
+		int slot;
+		if (free != NONE) {
+			slot = free;
+			free = next[slot];
+		} else {
+			if (used == drones.length)
+				grow();
+			slot = used++;
+		}
+		drones[slot] = drone;
+		refreshes[slot] = refresh;
+		return slot;
+	}
+
+	private void release(int slot) {
+		unlink(slot);
+		areas[slot] = NONE;
+		drones[slot] = null;
+		next[slot] = free;
+		free = slot;
+	}
+
+	private void link(int slot, int area) {
+		areas[slot] = area;
+		previous[slot] = NONE;
+		next[slot] = heads[area];
+		if (heads[area] != NONE)
+			previous[heads[area]] = slot;
+		heads[area] = slot;
+	}
+
+	private void unlink(int slot) {
+		if (previous[slot] != NONE)
+			next[previous[slot]] = next[slot];
+		else
+			heads[areas[slot]] = next[slot];
+		if (next[slot] != NONE)
+			previous[next[slot]] = previous[slot];
+	}
+
+	private void grow() {
+		int capacity = drones.length * 2;
+		drones = Arrays.copyOf(drones, capacity);
+		areas = Arrays.copyOf(areas, capacity);
+		next = Arrays.copyOf(next, capacity);
+		previous = Arrays.copyOf(previous, capacity);
+		refreshes = Arrays.copyOf(refreshes, capacity);
+	}
+}
@@ -0,0 +1,195 @@
+package sc6;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of the durations and allocations of a phase of the cycles,
+ * recorded concurrently without locks.
+ *
+ * The durations are counted in a log-linear histogram: durations below 64 ns
+ * have their own bucket, longer ones share each power of two between 32
+ * buckets. Percentiles are therefore known within about 3%, in a fixed amount
+ * of memory whatever the number of executions.
+ *
+ */
+public class PhaseStatistics implements PhaseStatisticsMBean {
+	/**
+	 * Number of buckets of each power of two, log2
+	 */
+	private static final int SUB_BITS = 5;
+	/**
+	 * Durations below this one have their own bucket
+	 */
+	private static final int LINEAR = 2 << SUB_BITS;
+	/**
+	 * Number of buckets, up to the longest duration held by a long
+	 */
+	private static final int BUCKETS = LINEAR + (63 - (SUB_BITS + 1)) * (1 << SUB_BITS);
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong();
+	/**
+	 * Allocated bytes, negative if they are not counted
+	 */
+	private final AtomicLong allocated = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param name
+	 *            Name of the phase
+	 */
+	public PhaseStatistics(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Record an execution of the phase
+	 *
+	 * @param nanos
+	 *            the duration of the execution
+	 * @param bytes
+	 *            the bytes allocated during the execution, negative if they
+	 *            are not counted
+	 */
+	public void record(long nanos, long bytes) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long current;
+		while (nanos < (current = min.get()) && !min.compareAndSet(current, nanos))
+			;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos))
+			;
+		if (bytes < 0)
+			allocated.set(-1);
+		else if (allocated.get() >= 0)
+			allocated.addAndGet(bytes);
+	}
+
+	/**
+	 * Forget all the executions recorded
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		total.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+		allocated.set(0);
+	}
+
+	private static int bucket(long nanos) {
+		if (nanos < LINEAR)
+			return (int) nanos;
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return LINEAR + ((exponent - SUB_BITS - 1) << SUB_BITS) + sub;
+	}
+
+	/**
+	 * Get the middle of the durations of a bucket
+	 */
+	private static long value(int bucket) {
+		if (bucket < LINEAR)
+			return bucket;
+		int exponent = (bucket - LINEAR >> SUB_BITS) + SUB_BITS + 1;
+		int sub = (bucket - LINEAR) & ((1 << SUB_BITS) - 1);
+		long low = (long) ((1 << SUB_BITS) + sub) << (exponent - SUB_BITS);
+		return low + (1L << (exponent - SUB_BITS - 1));
+	}
+
+	/**
+	 * Estimate a percentile of the durations
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the duration in nanoseconds, 0 if the phase never ran
+	 */
+	public long getPercentile(double percentile) {
+		long executions = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			executions += counts[i];
+		}
+		if (executions == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * executions));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(Math.max(value(i), getMinNanos()), getMaxNanos());
+		}
+		return getMaxNanos();
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public double getMeanNanos() {
+		long executions = count.get();
+		return executions == 0 ? 0 : (double) total.get() / executions;
+	}
+
+	@Override
+	public long getMinNanos() {
+		long value = min.get();
+		return value == Long.MAX_VALUE ? 0 : value;
+	}
+
+	@Override
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	@Override
+	public long getP50Nanos() {
+		return getPercentile(50);
+	}
+
+	@Override
+	public long getP90Nanos() {
+		return getPercentile(90);
+	}
+
+	@Override
+	public long getP99Nanos() {
+		return getPercentile(99);
+	}
+
+	@Override
+	public long getP999Nanos() {
+		return getPercentile(99.9);
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocated.get();
+	}
+
+	@Override
+	public double getAllocatedBytesPerCall() {
+		long bytes = allocated.get();
+		long executions = count.get();
+		if (bytes < 0)
+			return -1;
+		return executions == 0 ? 0 : (double) bytes / executions;
+	}
+}
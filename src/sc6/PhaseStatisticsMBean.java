@@ -0,0 +1,49 @@
+package sc6;
+
+/**
+ * Management interface of the statistics of a phase of the cycles
+ *
+ */
+public interface PhaseStatisticsMBean {
+	/**
+	 * Getter for the number of executions of the phase
+	 *
+	 * @return the count
+	 */
+	long getCount();
+
+	/**
+	 * Getter for the mean duration of the phase
+	 *
+	 * @return the mean in nanoseconds, 0 if the phase never ran
+	 */
+	double getMeanNanos();
+
+	long getMinNanos();
+
+	long getMaxNanos();
+
+	long getP50Nanos();
+
+	long getP90Nanos();
+
+	long getP99Nanos();
+
+	long getP999Nanos();
+
+	/**
+	 * Getter for the bytes allocated by the threads running the phase, or -1
+	 * if the JVM does not count them or if the work of the phase runs on other
+	 * threads than the measuring one, as for AGENTS
+	 *
+	 * @return the allocated bytes
+	 */
+	long getAllocatedBytes();
+
+	/**
+	 * Getter for the mean number of bytes allocated per execution
+	 *
+	 * @return the mean allocated bytes, or -1 if they are not counted
+	 */
+	double getAllocatedBytesPerCall();
+}
@@ -0,0 +1,17 @@
+package sc6;
+
+/**
+ * Drone which can be put back in the AMAS after being destroyed, so that the
+ * AMAS reuses it instead of creating a new drone. The AMAS registers it again
+ * as an agent before calling {@link #respawn(Area)}.
+ *
+ */
+public interface Respawnable {
+	/**
+	 * Reset the state of the drone as if it had just been created in an area
+	 *
+	 * @param area
+	 *            the area where the drone appears
+	 */
+	void respawn(Area area);
+}
@@ -0,0 +1,489 @@
+package sc6;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sc6.Area.AreaType;
+
+/**
+ * Routing of the drones between two areas, with an A* search over the
+ * {@link NeighbourGraph} going only through the allowed areas. The routes are
+ * kept in a bounded LRU cache keyed by the (from, to) pair.
+ *
+ * A cached route is dropped when an area of this route stops being allowed.
+ * The cached absences of route are dropped when any area becomes allowed.
+ * Areas becoming allowed may also shorten the cached routes, which are still
+ * valid and are kept.
+ *
+ */
+public class Router implements AreaStorage.TypeListener {
+	/**
+	 * Default number of cached routes
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * Absence of route between two areas
+	 */
+	private static final Route NO_ROUTE = new Route(new int[0]);
+
+	/**
+	 * The areas
+	 */
+	private final AreaStorage storage;
+	/**
+	 * The adjacency of the areas
+	 */
+	private final NeighbourGraph graph;
+	/**
+	 * Maximum number of cached routes
+	 */
+	private final int capacity;
+	/**
+	 * Cached routes by (from &lt;&lt; 32 | to), in access order
+	 */
+	private final LinkedHashMap<Long, Route> cache;
+	/**
+	 * Keys of the cached routes going through each area. Keys of routes which
+	 * have been evicted since are removed lazily.
+	 */
+	private final Map<Integer, List<Long>> routesByArea = new HashMap<>();
+	/**
+	 * Number of keys in {@link #routesByArea}
+	 */
+	private long indexedKeys;
+	/**
+	 * Sum of the lengths of the cached routes
+	 */
+	private long cachedLength;
+	/**
+	 * Number of changes of the allowed areas, used to discard the routes
+	 * computed during a change
+	 */
+	private long modifications;
+	/**
+	 * Search buffers of each thread
+	 */
+	private final ThreadLocal<Search> searches;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * Constructor
+	 *
+	 * @param storage
+	 *            The areas, whose neighbour graph must be set
+	 * @param capacity
+	 *            Maximum number of cached routes
+	 */
+	public Router(AreaStorage storage, int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+		this.storage = storage;
+		this.graph = storage.getNeighbourGraph();
+		this.capacity = capacity;
+		this.cache = new LinkedHashMap<Long, Route>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Route> eldest) {
+				if (size() <= Router.this.capacity)
+					return false;
+				cachedLength -= eldest.getValue().size();
+				evictions++;
+				return true;
+			}
+		};
+		this.searches = ThreadLocal.withInitial(() -> new Search(storage.size()));
+	}
+
+	/**
+	 * Find a shortest route between two areas
+	 *
+	 * @param from
+	 *            the index of the starting area, which may be forbidden
+	 * @param to
+	 *            the index of the destination
+	 * @return the route, empty if the destination cannot be reached
+	 */
+	public Route route(int from, int to) {
+		Long key = ((long) from << 32) | to;
+		long version;
+		synchronized (this) {
+			Route route = cache.get(key);
+			if (route != null) {
+				hits++;
+				return route;
+			}
+			misses++;
+			version = modifications;
+		}
+		Route route = searches.get().run(from, to);
+		synchronized (this) {
+			// The route may go through an area which has changed meanwhile
+			if (version == modifications && !cache.containsKey(key))
+				put(key, route);
+		}
+		return route;
+	}
+
+	/**
+	 * Find a shortest route between two areas
+	 *
+	 * @param from
+	 *            the starting area
+	 * @param to
+	 *            the destination
+	 * @return the route, empty if the destination cannot be reached
+	 */
+	public Route route(Area from, Area to) {
+		return route(from.getIndex(), to.getIndex());
+	}
+
+	private void put(Long key, Route route) {
+		cache.put(key, route);
+		cachedLength += route.size();
+		for (int i = 0; i < route.size(); i++) {
+			routesByArea.computeIfAbsent(route.get(i), k -> new ArrayList<>(2)).add(key);
+			indexedKeys++;
+		}
+		// Get rid of the keys of the evicted routes
+		if (indexedKeys > 4 * cachedLength + 1024)
+			reindex();
+	}
+
+	private void reindex() {
+		routesByArea.clear();
+		indexedKeys = 0;
+		for (Map.Entry<Long, Route> entry : cache.entrySet()) {
+			Route route = entry.getValue();
+			for (int i = 0; i < route.size(); i++)
+				routesByArea.computeIfAbsent(route.get(i), k -> new ArrayList<>(2)).add(entry.getKey());
+			indexedKeys += route.size();
+		}
+	}
+
+	/**
+	 * Drop the routes made invalid by a change of type
+	 */
+	@Override
+	public synchronized void typeChanged(int index, AreaType previous, AreaType type) {
+		boolean wasAllowed = Area.isAllowed(previous);
+		boolean allowed = Area.isAllowed(type);
+		if (wasAllowed == allowed)
+			return;
+		modifications++;
+		if (allowed) {
+			Iterator<Route> routes = cache.values().iterator();
+			while (routes.hasNext()) {
+				if (routes.next() == NO_ROUTE) {
+					routes.remove();
+					invalidations++;
+				}
+			}
+		} else {
+			List<Long> keys = routesByArea.remove(index);
+			if (keys == null)
+				return;
+			indexedKeys -= keys.size();
+			for (Long key : keys) {
+				Route route = cache.get(key);
+				if (route != null && route.contains(index)) {
+					cache.remove(key);
+					cachedLength -= route.size();
+					invalidations++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop all the cached routes
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		routesByArea.clear();
+		indexedKeys = 0;
+		cachedLength = 0;
+	}
+
+	/**
+	 * Getter for the number of routes found in the cache
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Getter for the number of routes searched
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Getter for the number of routes dropped to respect the capacity
+	 *
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Getter for the number of routes dropped after a change of type
+	 *
+	 * @return the number of invalidations
+	 */
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * Getter for the number of cached routes
+	 *
+	 * @return the size of the cache
+	 */
+	public synchronized int getSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Getter for the maximum number of cached routes
+	 *
+	 * @return the capacity of the cache
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Copy the cached routes, for the consistency checks
+	 *
+	 * @return the routes by (from &lt;&lt; 32 | to), empty for the cached
+	 *         absences of route
+	 */
+	synchronized Map<Long, Route> copyCache() {
+		return new HashMap<>(cache);
+	}
+
+	/**
+	 * Check if a cached route is indexed by an area, for the consistency
+	 * checks
+	 *
+	 * @param area
+	 *            the index of the area
+	 * @param key
+	 *            the key of the route
+	 * @return true if the route would be invalidated with the area
+	 */
+	synchronized boolean isIndexed(int area, long key) {
+		List<Long> keys = routesByArea.get(area);
+		return keys != null && keys.contains(key);
+	}
+
+	/**
+	 * Reset the hit, miss, eviction and invalidation counters
+	 */
+	public synchronized void resetCounters() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+		invalidations = 0;
+	}
+
+	/**
+	 * Estimate the number of moves between two areas, never above the real
+	 * one
+	 *
+	 * @param from
+	 *            the index of an area
+	 * @param to
+	 *            the index of another area
+	 * @return the estimated number of moves
+	 */
+	private int estimate(int from, int to) {
+		int width = storage.getWidth();
+		int fx = from % width;
+		int fy = from / width;
+		int tx = to % width;
+		int ty = to / width;
+		if (graph.getLayout() == NeighbourGraph.Layout.HEX) {
+			int dq = HexGrid.axialQ(tx, ty) - HexGrid.axialQ(fx, fy);
+			int dr = ty - fy;
+			return (Math.abs(dq) + Math.abs(dr) + Math.abs(dq + dr)) / 2;
+		}
+		return Math.max(Math.abs(tx - fx), Math.abs(ty - fy));
+	}
+
+	/**
+	 * A route between two areas, from the starting area to the destination
+	 * included. Routes are shared by the cache and must not be modified.
+	 *
+	 */
+	public static class Route {
+		private final int[] areas;
+
+		private Route(int[] areas) {
+			this.areas = areas;
+		}
+
+		/**
+		 * Getter for the number of areas of the route
+		 *
+		 * @return the number of areas, 0 if there is no route
+		 */
+		public int size() {
+			return areas.length;
+		}
+
+		/**
+		 * Check if the destination can be reached
+		 *
+		 * @return true if the route exists
+		 */
+		public boolean isEmpty() {
+			return areas.length == 0;
+		}
+
+		/**
+		 * Get an area of the route
+		 *
+		 * @param i
+		 *            the position in the route, 0 being the starting area
+		 * @return the index of the area
+		 */
+		public int get(int i) {
+			return areas[i];
+		}
+
+		/**
+		 * Check if the route goes through an area
+		 *
+		 * @param index
+		 *            the index of the area
+		 * @return true if the area is on the route
+		 */
+		public boolean contains(int index) {
+			for (int area : areas)
+				if (area == index)
+					return true;
+			return false;
+		}
+	}
+
+	/**
+	 * Buffers of the A* search, reused from one search to the next
+	 *
+	 */
+	private class Search {
+		/**
+		 * Cost from the starting area, valid if the stamp is the current one
+		 */
+		private final int[] costs;
+		private final int[] parents;
+		private final int[] stamps;
+		private int stamp;
+		/**
+		 * Heap of (estimated total cost, area) pairs
+		 */
+		private long[] heap = new long[64];
+		private int heapSize;
+
+		private Search(int size) {
+			costs = new int[size];
+			parents = new int[size];
+			stamps = new int[size];
+		}
+
+		private Route run(int from, int to) {
+			if (from == to)
+				return new Route(new int[] { from });
+			if (!storage.isAllowed(to))
+				return NO_ROUTE;
+			if (++stamp == 0) {
+				Arrays.fill(stamps, 0);
+				stamp = 1;
+			}
+			heapSize = 0;
+			stamps[from] = stamp;
+			costs[from] = 0;
+			parents[from] = -1;
+			offer(estimate(from, to), from);
+			while (heapSize > 0) {
+				long top = poll();
+				int area = (int) top;
+				int cost = costs[area];
+				if ((int) (top >>> 32) != cost + estimate(area, to))
+					continue;
+				if (area == to)
+					return build(to, cost);
+				for (int p = graph.firstNeighbour(area); p < graph.endNeighbour(area); p++) {
+					int neighbour = graph.neighbour(p);
+					if (!storage.isAllowed(neighbour))
+						continue;
+					if (stamps[neighbour] != stamp || cost + 1 < costs[neighbour]) {
+						stamps[neighbour] = stamp;
+						costs[neighbour] = cost + 1;
+						parents[neighbour] = area;
+						offer(cost + 1 + estimate(neighbour, to), neighbour);
+					}
+				}
+			}
+			return NO_ROUTE;
+		}
+
+		private Route build(int to, int cost) {
+			int[] areas = new int[cost + 1];
+			for (int area = to, i = cost; area != -1; area = parents[area], i--)
+				areas[i] = area;
+			return new Route(areas);
+		}
+
+		private void offer(int priority, int area) {
+			if (heapSize == heap.length)
+				heap = Arrays.copyOf(heap, heapSize * 2);
+			long value = ((long) priority << 32) | area;
+			int i = heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heap[parent] <= value)
+					break;
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = value;
+		}
+
+		private long poll() {
+			long top = heap[0];
+			long last = heap[--heapSize];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= heapSize)
+					break;
+				if (child + 1 < heapSize && heap[child + 1] < heap[child])
+					child++;
+				if (heap[child] >= last)
+					break;
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = last;
+			return top;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package sc6;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Publication of the snapshots of the simulation to the readers (viewer,
+ * exporters) without locks. The simulation thread fills a snapshot that no
+ * reader holds, then publishes it as the latest one. Readers acquire the
+ * latest snapshot and release it once done, so a snapshot being read is never
+ * overwritten. Two snapshots are swapped as long as the readers keep up; a
+ * new one is only allocated when a reader still holds the previous one.
+ *
+ */
+public class SnapshotBuffer {
+	/**
+	 * Snapshots owned by this buffer, only accessed by the simulation thread
+	 */
+	private final List<WorldSnapshot> snapshots = new ArrayList<>();
+	/**
+	 * The latest published snapshot
+	 */
+	private volatile WorldSnapshot latest;
+	/**
+	 * Number of snapshots published
+	 */
+	private long published;
+
+	/**
+	 * Publish the state of an AMAS if the latest snapshot has been read, or if
+	 * none has been published yet. When nobody reads the snapshots, this costs
+	 * nothing.
+	 * 
+	 * @param drAmas
+	 *            the AMAS
+	 */
+	public void publishIfConsumed(DrAmas drAmas) {
+		WorldSnapshot current = latest;
+		if (current == null || current.consumed)
+			publish(drAmas);
+	}
+
+	/**
+	 * Publish the state of an AMAS. Must only be called by the simulation
+	 * thread.
+	 * 
+	 * @param drAmas
+	 *            the AMAS
+	 */
+	public void publish(DrAmas drAmas) {
+		WorldSnapshot snapshot = claim();
+		snapshot.fill(drAmas);
+		snapshot.sequence = ++published;
+		snapshot.consumed = false;
+		snapshot.references.set(0);
+		latest = snapshot;
+	}
+
+	/**
+	 * Acquire the latest snapshot. It must be released once read.
+	 * 
+	 * @return the latest snapshot, or null if none has been published yet
+	 */
+	public WorldSnapshot acquire() {
+		while (true) {
+			WorldSnapshot snapshot = latest;
+			if (snapshot == null)
+				return null;
+			int references = snapshot.references.get();
+			if (references >= 0 && snapshot.references.compareAndSet(references, references + 1)) {
+				if (snapshot == latest) {
+					snapshot.consumed = true;
+					return snapshot;
+				}
+				// Replaced in the meantime, take the new one
+				snapshot.release();
+			}
+		}
+	}
+
+	/**
+	 * Find a snapshot that is neither the latest nor held by a reader, and
+	 * mark it as being written
+	 * 
+	 * @return the snapshot to fill
+	 */
+	private WorldSnapshot claim() {
+		WorldSnapshot current = latest;
+		for (WorldSnapshot snapshot : snapshots) {
+			if (snapshot != current && snapshot.references.compareAndSet(0, -1))
+				return snapshot;
+		}
+		WorldSnapshot snapshot = new WorldSnapshot();
+		snapshots.add(snapshot);
+		return snapshot;
+	}
+}
@@ -0,0 +1,120 @@
+package sc6;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import javax.imageio.ImageIO;
+
+import sc6.Drone.Mission;
+import sc6.Drone.Orientation;
+
+/**
+ * Sprites of the drones. Each image is decoded once, then rendered at the
+ * size of an area for every orientation and every mission, so drawing a drone
+ * is a single blit without any transform.
+ *
+ */
+public class SpriteAtlas {
+	/**
+	 * Image of the drones returning to home
+	 */
+	private static final String RTH_IMAGE = "/images/avion.png";
+	/**
+	 * Image of the other drones
+	 */
+	private static final String DEFAULT_IMAGE = "/images/black-plane.png";
+
+	/**
+	 * Sprites indexed by mission then orientation ordinals
+	 */
+	private final Image[][] sprites;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param size
+	 *            The size of the sprites in pixels
+	 */
+	public SpriteAtlas(int size) {
+		BufferedImage rth = load(RTH_IMAGE);
+		BufferedImage other = load(DEFAULT_IMAGE);
+		Mission[] missions = Mission.values();
+		Orientation[] orientations = Orientation.values();
+		sprites = new Image[missions.length][orientations.length];
+		for (Mission mission : missions) {
+			BufferedImage source = mission == Mission.RTH ? rth : other;
+			for (Orientation orientation : orientations) {
+				sprites[mission.ordinal()][orientation.ordinal()] = render(source, size, angle(orientation));
+			}
+		}
+	}
+
+	/**
+	 * Get the sprite of a drone
+	 * 
+	 * @param mission
+	 *            The mission of the drone
+	 * @param orientation
+	 *            The orientation of the drone
+	 * @return the sprite
+	 */
+	public Image getSprite(Mission mission, Orientation orientation) {
+		return sprites[mission.ordinal()][orientation.ordinal()];
+	}
+
+	/**
+	 * Get the angle of the sprite for an orientation, the images facing right
+	 * 
+	 * @param orientation
+	 *            The orientation
+	 * @return the angle in degrees
+	 */
+	public static double angle(Orientation orientation) {
+		switch(orientation) {
+		case TOP:
+			return 270;
+		case TOPRIGHT:
+			return 315;
+		case RIGHT:
+			return 0;
+		case BOTTOMRIGHT:
+			return 45;
+		case BOTTOM:
+			return 90;
+		case BOTTOMLEFT:
+			return 135;
+		case LEFT:
+			return 180;
+		case TOPLEFT:
+			return 225;
+		default:
+			return 0;
+		}
+	}
+
+	private static BufferedImage load(String resource) {
+		try (InputStream in = SpriteAtlas.class.getResourceAsStream(resource)) {
+			if (in == null)
+				throw new IOException("Missing image " + resource);
+			return ImageIO.read(in);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static BufferedImage render(BufferedImage source, int size, double angle) {
+		BufferedImage sprite = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = sprite.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.rotate(Math.toRadians(angle), size / 2.0, size / 2.0);
+		g.drawImage(source, 0, 0, size, size, null);
+		g.dispose();
+		return sprite;
+	}
+}
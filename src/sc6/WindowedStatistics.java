@@ -0,0 +1,259 @@
+package sc6;
+
+/**
+ * Statistics on the last values of a series, over several sliding windows at
+ * once. The values are kept in a primitive ring buffer sized for the largest
+ * window and each window maintains its aggregates on the fly, so adding a
+ * value or reading a statistic never allocates.
+ *
+ * Percentiles are approximated with a fixed histogram over a range of
+ * expected values given at construction. Values outside this range are
+ * counted in the first or last bin.
+ *
+ */
+public class WindowedStatistics {
+	/**
+	 * Ring buffer of the last values
+	 */
+	private final double[] values;
+	/**
+	 * Number of values added since the creation
+	 */
+	private long count;
+	/**
+	 * Lower bound of the histogram range
+	 */
+	private final double low;
+	/**
+	 * Width of a histogram bin
+	 */
+	private final double binWidth;
+	/**
+	 * The windows
+	 */
+	private final Window[] windows;
+
+	/**
+	 * Constructor
+	 *
+	 * @param low
+	 *            Lower bound of the expected values
+	 * @param high
+	 *            Upper bound of the expected values
+	 * @param bins
+	 *            Number of histogram bins used for the percentiles
+	 * @param sizes
+	 *            Sizes of the windows
+	 */
+	public WindowedStatistics(double low, double high, int bins, int... sizes) {
+		if (sizes.length == 0)
+			throw new IllegalArgumentException("At least one window size is required");
+		int capacity = 0;
+		for (int size : sizes) {
+			if (size <= 0)
+				throw new IllegalArgumentException("Window sizes must be positive: " + size);
+			capacity = Math.max(capacity, size);
+		}
+		this.values = new double[capacity];
+		this.low = low;
+		this.binWidth = (high - low) / bins;
+		this.windows = new Window[sizes.length];
+		for (int i = 0; i < sizes.length; i++)
+			windows[i] = new Window(sizes[i], bins);
+	}
+
+	/**
+	 * Add a value to the series
+	 *
+	 * @param value
+	 *            the new value
+	 */
+	public void add(double value) {
+		// The windows still need the value leaving the largest one
+		for (Window window : windows)
+			window.add(value, count);
+		values[(int) (count % values.length)] = value;
+		count++;
+		if (count % values.length == 0) {
+			// Get rid of the rounding errors of the running sums
+			for (Window window : windows)
+				window.resum();
+		}
+	}
+
+	/**
+	 * Get the number of values currently in a window
+	 *
+	 * @param window
+	 *            the index of the window, in the order of the constructor
+	 * @return the number of values
+	 */
+	public int getCount(int window) {
+		return (int) Math.min(count, windows[window].size);
+	}
+
+	/**
+	 * Get the average of the values of a window
+	 *
+	 * @param window
+	 *            the index of the window
+	 * @return the average, or NaN if no value has been added
+	 */
+	public double getAverage(int window) {
+		return windows[window].sum / getCount(window);
+	}
+
+	/**
+	 * Get the lowest value of a window
+	 *
+	 * @param window
+	 *            the index of the window
+	 * @return the lowest value, or NaN if no value has been added
+	 */
+	public double getMin(int window) {
+		return windows[window].min.first();
+	}
+
+	/**
+	 * Get the highest value of a window
+	 *
+	 * @param window
+	 *            the index of the window
+	 * @return the highest value, or NaN if no value has been added
+	 */
+	public double getMax(int window) {
+		return windows[window].max.first();
+	}
+
+	/**
+	 * Get an approximate percentile of the values of a window
+	 *
+	 * @param window
+	 *            the index of the window
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the center of the histogram bin containing the percentile, or NaN
+	 *         if no value has been added
+	 */
+	public double getPercentile(int window, double percentile) {
+		int total = getCount(window);
+		if (total == 0)
+			return Double.NaN;
+		int[] histogram = windows[window].histogram;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int bin = 0; bin < histogram.length; bin++) {
+			seen += histogram[bin];
+			if (seen >= rank)
+				return low + (bin + 0.5) * binWidth;
+		}
+		return low + (histogram.length - 0.5) * binWidth;
+	}
+
+	/**
+	 * Compute the histogram bin of a value
+	 *
+	 * @param value
+	 *            the value
+	 * @param bins
+	 *            the number of bins
+	 * @return the bin
+	 */
+	private int bin(double value, int bins) {
+		int bin = (int) ((value - low) / binWidth);
+		if (bin < 0 || value != value)
+			return 0;
+		return Math.min(bin, bins - 1);
+	}
+
+	/**
+	 * Aggregates over the last values of the series
+	 *
+	 */
+	private class Window {
+		/**
+		 * Number of values of the window
+		 */
+		private final int size;
+		/**
+		 * Sum of the values of the window
+		 */
+		private double sum;
+		/**
+		 * Count of the values of the window per histogram bin
+		 */
+		private final int[] histogram;
+		/**
+		 * Candidates for the lowest value
+		 */
+		private final MonotonicQueue min;
+		/**
+		 * Candidates for the highest value
+		 */
+		private final MonotonicQueue max;
+
+		private Window(int size, int bins) {
+			this.size = size;
+			this.histogram = new int[bins];
+			this.min = new MonotonicQueue(size, false);
+			this.max = new MonotonicQueue(size, true);
+		}
+
+		private void add(double value, long index) {
+			if (index >= size) {
+				double leaving = values[(int) ((index - size) % values.length)];
+				sum -= leaving;
+				histogram[bin(leaving, histogram.length)]--;
+			}
+			sum += value;
+			histogram[bin(value, histogram.length)]++;
+			min.add(value, index);
+			max.add(value, index);
+		}
+
+		private void resum() {
+			sum = 0;
+			int n = (int) Math.min(count, size);
+			for (long i = count - n; i < count; i++)
+				sum += values[(int) (i % values.length)];
+		}
+
+		/**
+		 * Indexes of decreasing (for the max) or increasing (for the min)
+		 * values of the window, the first one being the extremum
+		 *
+		 */
+		private class MonotonicQueue {
+			private final long[] indexes;
+			private final boolean highest;
+			private int head;
+			private int length;
+
+			private MonotonicQueue(int size, boolean highest) {
+				this.indexes = new long[size];
+				this.highest = highest;
+			}
+
+			private void add(double value, long index) {
+				while (length > 0 && indexes[head] <= index - size) {
+					head = (head + 1) % indexes.length;
+					length--;
+				}
+				while (length > 0) {
+					double last = values[(int) (indexes[(head + length - 1) % indexes.length] % values.length)];
+					if (highest ? last > value : last < value)
+						break;
+					length--;
+				}
+				indexes[(head + length) % indexes.length] = index;
+				length++;
+			}
+
+			private double first() {
+				if (length == 0)
+					return Double.NaN;
+				return values[(int) (indexes[head] % values.length)];
+			}
+		}
+	}
+}
@@ -2,6 +2,7 @@ package sc6;
 
 import fr.irit.smac.amak.Environment;
 import fr.irit.smac.amak.Scheduling;
+import sc6.Area.AreaType;
 
 /**
  * This class represents the environment of the AMAS which is the world (or at
@@ -9,46 +10,176 @@ import fr.irit.smac.amak.Scheduling;
  *
  */
 public class World extends Environment {
+	/**
+	 * Constructor of a world using the default scheduler
+	 * 
+	 * @param params
+	 *            the width, the height and the layout of the areas, all
+	 *            optional, or a {@link MapFile}
+	 */
 	public World(Object...params) {
 		super(Scheduling.DEFAULT, params);
 	}
 
+	/**
+	 * Constructor of a world using a given layout of the areas
+	 * 
+	 * @param layout
+	 *            the layout of the areas
+	 */
+	public World(NeighbourGraph.Layout layout) {
+		this(Scheduling.DEFAULT, WIDTH, HEIGHT, layout);
+	}
+
+	/**
+	 * Constructor of a world of a given size
+	 * 
+	 * @param scheduling
+	 *            the scheduling of the world
+	 * @param width
+	 *            number of areas in width
+	 * @param height
+	 *            number of areas in height
+	 * @param layout
+	 *            the layout of the areas
+	 */
+	public World(Scheduling scheduling, int width, int height, NeighbourGraph.Layout layout) {
+		super(scheduling, width, height, layout);
+	}
+
+	/**
+	 * Constructor of a world loaded from a map
+	 * 
+	 * @param scheduling
+	 *            the scheduling of the world
+	 * @param map
+	 *            the map giving the size, the layout and the areas
+	 */
+	public World(Scheduling scheduling, MapFile map) {
+		super(scheduling, map);
+	}
+
 	/**
 	 * Areas in the world
 	 */
 	private Area[][] areas;
+	/**
+	 * Primitive storage of the state of the areas
+	 */
+	private AreaStorage storage;
+	/**
+	 * Adjacency of the areas
+	 */
+	private NeighbourGraph neighbourGraph;
+	/**
+	 * Distances and moves toward the recharge stations
+	 */
+	private FlowField flowField;
+	/**
+	 * Routing between areas, with a cache of the routes
+	 */
+	private Router router;
+	/**
+	 * Measure of the phases of the cycles, set by the AMAS
+	 */
+	private CycleProfiler profiler;
 	/**
 	 * Number of areas in width
 	 */
-	public final static int WIDTH = 80;
+	private int width;
 	/**
 	 * Number of areas in height
 	 */
+	private int height;
+	/**
+	 * Default number of areas in width
+	 */
+	public final static int WIDTH = 80;
+	/**
+	 * Default number of areas in height
+	 */
 	public final static int HEIGHT = 60;
 
 	/**
-	 * Create the various areas
+	 * Create the various areas and connect them
 	 */
 	@Override
 	public void onInitialization() {
-		areas = new Area[HEIGHT][WIDTH];
-		for (int x = 0; x < WIDTH; x++) {
-			for (int y = 0; y < HEIGHT; y++) {
-				areas[y][x] = new Area(x, y);
-			}
+		MapFile map = param(0, MapFile.class, null);
+		NeighbourGraph.Layout layout;
+		if (map != null) {
+			width = map.getWidth();
+			height = map.getHeight();
+			layout = map.getLayout();
+			storage = new AreaStorage(width, height);
+			storage.load(map);
+		} else {
+			width = param(0, Integer.class, WIDTH);
+			height = param(1, Integer.class, HEIGHT);
+			layout = param(2, NeighbourGraph.Layout.class, NeighbourGraph.Layout.SQUARE);
+			storage = new AreaStorage(width, height);
+			AreaType[] types = new AreaType[width * height];
+			float[] factors = new float[width * height];
+			storage.getSweep().forEach(width, height, i -> {
+				types[i] = Area.defaultType(i % width, i / width, width, height);
+				factors[i] = Area.DEFAULT_OUTDATE_FACTOR;
+			});
+			// Fill the storage in bulk rather than area by area
+			storage.load(MapFile.of(width, height, layout, types, factors));
 		}
+		areas = new Area[height][width];
+		storage.getSweep().forEachTile(width, height, (x0, y0, x1, y1) -> {
+			for (int y = y0; y < y1; y++)
+				for (int x = x0; x < x1; x++)
+					areas[y][x] = new Area(storage, x, y);
+		});
+		neighbourGraph = new NeighbourGraph(layout, areas);
+		storage.setNeighbourGraph(neighbourGraph);
+		flowField = new FlowField(storage);
+		storage.addTypeListener(flowField);
+		router = new Router(storage, Router.DEFAULT_CAPACITY);
+		storage.addTypeListener(router);
 	}
 
 	/**
-	 * Inform each area at each cycle
+	 * Get a parameter given at the construction of the world
+	 * 
+	 * @param position
+	 *            the position of the parameter
+	 * @param type
+	 *            the expected type of the parameter
+	 * @param defaultValue
+	 *            the value used if the parameter is missing or of another type
+	 * @return the value of the parameter
+	 */
+	private <T> T param(int position, Class<T> type, T defaultValue) {
+		if (params == null || position >= params.length || !type.isInstance(params[position]))
+			return defaultValue;
+		return type.cast(params[position]);
+	}
+
+	/**
+	 * Make the areas age at each cycle
 	 */
 	@Override
 	public void onCycle() {
-		for (int x = 0; x < WIDTH; x++) {
-			for (int y = 0; y < HEIGHT; y++) {
-				areas[y][x].cycle();
-			}
+		if (profiler == null) {
+			storage.cycle();
+			return;
 		}
+		profiler.start(CycleProfiler.Phase.WORLD_CYCLE);
+		storage.cycle();
+		profiler.end(CycleProfiler.Phase.WORLD_CYCLE);
+	}
+
+	/**
+	 * Set the measure of the phases of the cycles
+	 * 
+	 * @param profiler
+	 *            the profiler, or null
+	 */
+	public void setProfiler(CycleProfiler profiler) {
+		this.profiler = profiler;
 	}
 
 	/**
@@ -60,6 +191,90 @@ public class World extends Environment {
 		return areas;
 	}
 
+	/**
+	 * Getter for the number of areas in width
+	 * 
+	 * @return the width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Getter for the number of areas in height
+	 * 
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Getter for the primitive storage of the areas
+	 * 
+	 * @return the storage
+	 */
+	public AreaStorage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Getter for the incremental statistics on the area criticalities
+	 * 
+	 * @return the criticality aggregator
+	 */
+	public CriticalityAggregator getCriticalities() {
+		return storage.getCriticalities();
+	}
+
+	/**
+	 * Getter for the index of the areas by type
+	 * 
+	 * @return the type index
+	 */
+	public AreaTypeIndex getTypeIndex() {
+		return storage.getTypeIndex();
+	}
+
+	/**
+	 * Getter for the distances and moves toward the recharge stations, kept up
+	 * to date when the types of the areas change
+	 * 
+	 * @return the flow field
+	 */
+	public FlowField getFlowField() {
+		return flowField;
+	}
+
+	/**
+	 * Getter for the routing between areas
+	 * 
+	 * @return the router
+	 */
+	public Router getRouter() {
+		return router;
+	}
+
+	/**
+	 * Get an area by its index
+	 * 
+	 * @param index
+	 *            the index of the area, y * width + x
+	 * @return the area
+	 */
+	public Area getArea(int index) {
+		return areas[index / width][index % width];
+	}
+
+	/**
+	 * Getter for the adjacency of the areas
+	 * 
+	 * @return the neighbour graph
+	 */
+	public NeighbourGraph getNeighbourGraph() {
+		return neighbourGraph;
+	}
+
 	/**
 	 * Get an area at a specific coordinate
 	 * 
@@ -71,7 +286,7 @@ public class World extends Environment {
 	 */
 	public Area getAreaByPosition(int dx, int dy) {
 
-		if (dx < 0 || dy < 0 || dx >= WIDTH || dy >= HEIGHT)
+		if (dx < 0 || dy < 0 || dx >= width || dy >= height)
 			return null;
 		return areas[dy][dx];
 	}
@@ -0,0 +1,330 @@
+package sc6;
+
+import static sc6.WorldViewer.AREA_SIZE;
+import static sc6.WorldViewer.discreteToTopContinuous;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import sc6.Area.AreaType;
+
+/**
+ * This class draws the environment and the drones on any graphics, either the
+ * canvas of the {@link WorldViewer} or an off-screen image
+ *
+ */
+public class WorldRenderer {
+
+	/**
+	 * Pre-rotated sprites of the drones
+	 */
+	private final SpriteAtlas sprites = new SpriteAtlas(AREA_SIZE);
+
+	/**
+	 * Number of time since last scan values having their own color
+	 */
+	private static final int SURVEY_COLOR_COUNT = 1001;
+	/**
+	 * Colors of the SURVEY areas, by time since last scan
+	 */
+	private static final int[] SURVEY_COLORS = new int[SURVEY_COLOR_COUNT];
+
+	static {
+		for (int t = 0; t < SURVEY_COLOR_COUNT; t++)
+			SURVEY_COLORS[t] = new Color((float) t / 1000f, 1 - (float) t / 1000f, 0f).getRGB();
+	}
+
+	/**
+	 * Cached image of the areas, only updated where they have changed. Its
+	 * pixels are only written through its raster, so that it stays managed
+	 * and its drawing accelerated.
+	 */
+	private BufferedImage areaLayer;
+	/**
+	 * Pixels of a square area, written at once in {@link #areaLayer}
+	 */
+	private final int[] cellPixels = new int[AREA_SIZE * AREA_SIZE];
+	/**
+	 * Transparent image holding the grid lines, drawn once
+	 */
+	private BufferedImage gridLayer;
+	/**
+	 * Color of each area in {@link #areaLayer}
+	 */
+	private int[] drawnColors;
+	/**
+	 * Geometry of the areas in the HEX layout, null in the SQUARE layout
+	 */
+	private HexGrid hexGrid;
+	/**
+	 * Areas to repaint in a frame, as color in the high bits and index in the
+	 * low bits, so that sorting them groups the hexagons by color
+	 */
+	private long[] changes = new long[0];
+	/**
+	 * Number of areas in {@link #changes}
+	 */
+	private int changeCount;
+	/**
+	 * SURVEY areas whose color still changes as they age, as of the last frame
+	 */
+	private int[] aging = new int[0];
+	/**
+	 * Number of areas in {@link #aging}
+	 */
+	private int agingCount;
+	/**
+	 * Aging areas found during the current frame, swapped with {@link #aging}
+	 */
+	private int[] nextAging = new int[0];
+	/**
+	 * Number of areas in {@link #nextAging}
+	 */
+	private int nextAgingCount;
+	/**
+	 * Last frame in which each area has been checked
+	 */
+	private int[] checked = new int[0];
+	/**
+	 * Number of frames drawn
+	 */
+	private int frame;
+	/**
+	 * Sequence number of the last snapshot drawn, -1 to check all the areas at
+	 * the next frame
+	 */
+	private long drawnSequence = -1;
+	/**
+	 * Path reused to fill the hexagons of a same color at once
+	 */
+	private final Path2D.Double batch = new Path2D.Double();
+
+	/**
+	 * Draw the state of the system
+	 * 
+	 * @param arg0
+	 *            the graphics to draw on
+	 * @param snapshot
+	 *            the state of the system to draw
+	 */
+	public void draw(Graphics2D arg0, WorldSnapshot snapshot) {
+		// Draw areas
+		updateAreaLayer(snapshot);
+		arg0.drawImage(areaLayer, 0, 0, null);
+		arg0.drawImage(gridLayer, 0, 0, null);
+
+		// Draw agents
+		for (int i = 0; i < snapshot.getDroneCount(); i++) {
+			int x;
+			int y;
+			if (hexGrid == null) {
+				x = (int) discreteToTopContinuous(snapshot.getDroneX(i));
+				y = (int) discreteToTopContinuous(snapshot.getDroneY(i));
+			} else {
+				int row = Math.round(snapshot.getDroneY(i));
+				x = (int) (hexGrid.centerX(snapshot.getDroneX(i), row) - AREA_SIZE / 2);
+				y = (int) (hexGrid.centerY(snapshot.getDroneY(i)) - AREA_SIZE / 2);
+			}
+			arg0.drawImage(sprites.getSprite(snapshot.getMission(i), snapshot.getOrientation(i)), x, y, null);
+		}
+	}
+
+	/**
+	 * Find the area drawn at a pixel of the last frame
+	 * 
+	 * @param px
+	 *            X coordinate in pixels
+	 * @param py
+	 *            Y coordinate in pixels
+	 * @return the index of the area, or -1 if there is no area at this pixel
+	 */
+	public int pixelToIndex(int px, int py) {
+		if (areaLayer == null)
+			return -1;
+		if (hexGrid != null)
+			return hexGrid.pixelToIndex(px, py);
+		int width = areaLayer.getWidth() / AREA_SIZE;
+		int height = areaLayer.getHeight() / AREA_SIZE;
+		if (px < 0 || py < 0 || px >= width * AREA_SIZE || py >= height * AREA_SIZE)
+			return -1;
+		return py / AREA_SIZE * width + px / AREA_SIZE;
+	}
+
+	/**
+	 * Repaint in the cached image the areas whose color has changed since the
+	 * last frame. When the snapshot follows the one of the last frame, only
+	 * the areas it reports as changed and the SURVEY areas still aging are
+	 * checked; otherwise all the areas are.
+	 * 
+	 * @param snapshot
+	 *            the state of the areas
+	 */
+	private void updateAreaLayer(WorldSnapshot snapshot) {
+		int width = snapshot.getWidth();
+		int height = snapshot.getHeight();
+		boolean hex = snapshot.getLayout() == NeighbourGraph.Layout.HEX;
+		if (areaLayer == null || drawnColors.length != width * height || (hexGrid != null) != hex
+				|| (hexGrid == null && (areaLayer.getWidth() != width * AREA_SIZE
+						|| areaLayer.getHeight() != height * AREA_SIZE))
+				|| (hexGrid != null && (hexGrid.getWidth() != width || hexGrid.getHeight() != height)))
+			createLayers(width, height, hex);
+		long sequence = snapshot.getSequence();
+		if (sequence == drawnSequence)
+			return;
+		frame++;
+		changeCount = 0;
+		nextAgingCount = 0;
+		if (sequence != drawnSequence + 1 || snapshot.getChangeCount() < 0) {
+			for (int index = 0; index < drawnColors.length; index++)
+				check(snapshot, index);
+		} else {
+			for (int i = 0; i < agingCount; i++)
+				check(snapshot, aging[i]);
+			for (int i = 0; i < snapshot.getChangeCount(); i++)
+				check(snapshot, snapshot.getChange(i));
+		}
+		int[] swapped = aging;
+		aging = nextAging;
+		agingCount = nextAgingCount;
+		nextAging = swapped;
+		drawnSequence = sequence;
+		if (hex) {
+			updateHexagons();
+			return;
+		}
+		WritableRaster raster = areaLayer.getRaster();
+		for (int i = 0; i < changeCount; i++) {
+			int color = (int) (changes[i] >> 32);
+			int index = (int) changes[i];
+			Arrays.fill(cellPixels, color);
+			raster.setDataElements(index % width * AREA_SIZE, index / width * AREA_SIZE, AREA_SIZE, AREA_SIZE,
+					cellPixels);
+		}
+	}
+
+	/**
+	 * Compare the color of an area with the drawn one, once per frame, and
+	 * keep it for the next frame if it is still aging
+	 * 
+	 * @param snapshot
+	 *            the state of the areas
+	 * @param index
+	 *            the index of the area
+	 */
+	private void check(WorldSnapshot snapshot, int index) {
+		if (checked[index] == frame)
+			return;
+		checked[index] = frame;
+		int color = color(snapshot, index);
+		if (snapshot.getType(index) == AreaType.SURVEY
+				&& snapshot.getTimeSinceLastSeen(index) < SURVEY_COLOR_COUNT - 1)
+			nextAging[nextAgingCount++] = index;
+		if (drawnColors[index] == color)
+			return;
+		drawnColors[index] = color;
+		changes[changeCount++] = ((long) color << 32) | index;
+	}
+
+	/**
+	 * Repaint the hexagons whose color has changed, filling all the hexagons of
+	 * a same color with a single path
+	 */
+	private void updateHexagons() {
+		if (changeCount == 0)
+			return;
+		Arrays.sort(changes, 0, changeCount);
+		int width = hexGrid.getWidth();
+		Graphics2D g = areaLayer.createGraphics();
+		int i = 0;
+		while (i < changeCount) {
+			int color = (int) (changes[i] >> 32);
+			batch.reset();
+			for (; i < changeCount && (int) (changes[i] >> 32) == color; i++) {
+				int index = (int) changes[i];
+				hexGrid.append(batch, index % width, index / width);
+			}
+			g.setColor(new Color(color));
+			g.fill(batch);
+		}
+		g.dispose();
+	}
+
+	/**
+	 * Compute the color of an area
+	 * 
+	 * @param snapshot
+	 *            the state of the areas
+	 * @param index
+	 *            the index of the area
+	 * @return the RGB color
+	 */
+	private static int color(WorldSnapshot snapshot, int index) {
+		switch(snapshot.getType(index)){
+		case GEOFENCEE:
+			return Color.DARK_GRAY.getRGB();
+		case SURVEY:
+			return SURVEY_COLORS[Math.min(snapshot.getTimeSinceLastSeen(index), SURVEY_COLOR_COUNT - 1)];
+		case PREPARATION:
+			return Color.MAGENTA.getRGB();
+		case RECHARGE:
+			return Color.YELLOW.getRGB();
+		case FORBIDDEN:
+			return Color.BLACK.getRGB();
+		default:
+			return Color.LIGHT_GRAY.getRGB();
+		}
+	}
+
+	/**
+	 * Create the cached images for a given world size
+	 * 
+	 * @param width
+	 *            number of areas in width
+	 * @param height
+	 *            number of areas in height
+	 * @param hex
+	 *            true for the HEX layout
+	 */
+	private void createLayers(int width, int height, boolean hex) {
+		// The colors are opaque, hence never 0, so every area is painted once
+		drawnColors = new int[width * height];
+		changes = new long[width * height];
+		aging = new int[width * height];
+		nextAging = new int[width * height];
+		agingCount = 0;
+		checked = new int[width * height];
+		frame = 0;
+		drawnSequence = -1;
+		if (hex) {
+			hexGrid = HexGrid.ofAreaSize(width, height, AREA_SIZE);
+			areaLayer = new BufferedImage(hexGrid.getPixelWidth(), hexGrid.getPixelHeight(),
+					BufferedImage.TYPE_INT_RGB);
+			gridLayer = new BufferedImage(hexGrid.getPixelWidth() + 1, hexGrid.getPixelHeight() + 1,
+					BufferedImage.TYPE_INT_ARGB);
+			Path2D.Double outlines = new Path2D.Double();
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					hexGrid.append(outlines, x, y);
+			Graphics2D g = gridLayer.createGraphics();
+			g.setColor(Color.BLACK);
+			g.draw(outlines);
+			g.dispose();
+			return;
+		}
+		hexGrid = null;
+		areaLayer = new BufferedImage(width * AREA_SIZE, height * AREA_SIZE, BufferedImage.TYPE_INT_RGB);
+
+		gridLayer = new BufferedImage(width * AREA_SIZE + 1, height * AREA_SIZE + 1, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = gridLayer.createGraphics();
+		g.setColor(Color.BLACK);
+		for (int x = 0; x <= width; x++)
+			g.drawLine(x * AREA_SIZE, 0, x * AREA_SIZE, height * AREA_SIZE);
+		for (int y = 0; y <= height; y++)
+			g.drawLine(0, y * AREA_SIZE, width * AREA_SIZE, y * AREA_SIZE);
+		g.dispose();
+	}
+}
@@ -0,0 +1,216 @@
+package sc6;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.irit.smac.amak.Agent;
+import sc6.Area.AreaType;
+import sc6.Drone.Mission;
+import sc6.Drone.Orientation;
+
+/**
+ * Copy of the state of the areas and of the drones at the end of a cycle, in
+ * primitive arrays. Snapshots are published by a {@link SnapshotBuffer} and
+ * are never modified while a reader holds them.
+ *
+ */
+public class WorldSnapshot {
+	/**
+	 * Cached values of the area types, indexed by ordinal
+	 */
+	private static final AreaType[] TYPES = AreaType.values();
+	/**
+	 * Cached values of the missions, indexed by ordinal
+	 */
+	private static final Mission[] MISSIONS = Mission.values();
+	/**
+	 * Cached values of the orientations, indexed by ordinal
+	 */
+	private static final Orientation[] ORIENTATIONS = Orientation.values();
+
+	/**
+	 * Number of readers holding the snapshot, or -1 while it is written
+	 */
+	final AtomicInteger references = new AtomicInteger(-1);
+	/**
+	 * Whether a reader has acquired the snapshot since its publication
+	 */
+	volatile boolean consumed;
+	/**
+	 * Number of the publication of the snapshot, set by its buffer
+	 */
+	long sequence;
+
+	private int cycle;
+	private int width;
+	private int height;
+	private NeighbourGraph.Layout layout = NeighbourGraph.Layout.SQUARE;
+	private byte[] types = new byte[0];
+	private int[] timesSinceLastSeen = new int[0];
+	/**
+	 * Areas changed since the previous snapshot of the buffer
+	 */
+	private int[] changes = new int[0];
+	/**
+	 * Number of areas in {@link #changes}, or -1 if all of them may have
+	 * changed
+	 */
+	private int changeCount;
+	private double criticalitySum;
+	private double criticalityMax;
+	private int droneCount;
+	private float[] droneX = new float[0];
+	private float[] droneY = new float[0];
+	private byte[] missions = new byte[0];
+	private byte[] orientations = new byte[0];
+
+	/**
+	 * Copy the current state of an AMAS, reusing the arrays when possible.
+	 * Called by the simulation thread while no reader holds the snapshot.
+	 * 
+	 * @param drAmas
+	 *            the AMAS
+	 */
+	void fill(DrAmas drAmas) {
+		World world = drAmas.getEnvironment();
+		AreaStorage storage = world.getStorage();
+		cycle = drAmas.getCycle();
+		width = storage.getWidth();
+		height = storage.getHeight();
+		NeighbourGraph graph = storage.getNeighbourGraph();
+		layout = graph == null ? NeighbourGraph.Layout.SQUARE : graph.getLayout();
+		if (types.length != storage.size()) {
+			types = new byte[storage.size()];
+			timesSinceLastSeen = new int[storage.size()];
+			changes = new int[storage.size()];
+		}
+		changeCount = storage.drainChanges(changes);
+		storage.copyTypes(types);
+		storage.copyTimesSinceLastSeen(timesSinceLastSeen);
+		criticalitySum = world.getCriticalities().getSum();
+		criticalityMax = world.getCriticalities().getMax();
+
+		List<? extends Agent<?, World>> agents = drAmas.getAgents();
+		droneCount = agents.size();
+		if (droneX.length < droneCount) {
+			int capacity = Math.max(16, Integer.highestOneBit(droneCount) * 2);
+			droneX = new float[capacity];
+			droneY = new float[capacity];
+			missions = new byte[capacity];
+			orientations = new byte[capacity];
+		}
+		for (int i = 0; i < droneCount; i++) {
+			Drone drone = (Drone) agents.get(i);
+			droneX[i] = (float) drone.getX();
+			droneY[i] = (float) drone.getY();
+			missions[i] = (byte) drone.getMission().ordinal();
+			orientations[i] = (byte) drone.getOrientation().ordinal();
+		}
+	}
+
+	/**
+	 * Give the snapshot back once done reading it
+	 */
+	public void release() {
+		references.decrementAndGet();
+	}
+
+	public int getCycle() {
+		return cycle;
+	}
+
+	/**
+	 * Getter for the number of the publication of the snapshot. Consecutive
+	 * publications of a buffer have consecutive numbers.
+	 * 
+	 * @return the sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Getter for the number of areas whose type or time since last scan has
+	 * been changed by the simulation since the previous snapshot, not counting
+	 * the aging of the SURVEY areas
+	 * 
+	 * @return the number of changes, possibly repeating areas, or -1 if all
+	 *         the areas may have changed
+	 */
+	public int getChangeCount() {
+		return changeCount;
+	}
+
+	/**
+	 * Get an area changed since the previous snapshot
+	 * 
+	 * @param change
+	 *            the index of the change, below {@link #getChangeCount()}
+	 * @return the index of the area
+	 */
+	public int getChange(int change) {
+		return changes[change];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public NeighbourGraph.Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Get the type of an area
+	 * 
+	 * @param index
+	 *            the index of the area, y * width + x
+	 * @return the type
+	 */
+	public AreaType getType(int index) {
+		return TYPES[types[index]];
+	}
+
+	/**
+	 * Get the time since last scan of an area
+	 * 
+	 * @param index
+	 *            the index of the area, y * width + x
+	 * @return the time since last scan
+	 */
+	public int getTimeSinceLastSeen(int index) {
+		return timesSinceLastSeen[index];
+	}
+
+	public double getCriticalitySum() {
+		return criticalitySum;
+	}
+
+	public double getCriticalityMax() {
+		return criticalityMax;
+	}
+
+	public int getDroneCount() {
+		return droneCount;
+	}
+
+	public float getDroneX(int drone) {
+		return droneX[drone];
+	}
+
+	public float getDroneY(int drone) {
+		return droneY[drone];
+	}
+
+	public Mission getMission(int drone) {
+		return MISSIONS[missions[drone]];
+	}
+
+	public Orientation getOrientation(int drone) {
+		return ORIENTATIONS[orientations[drone]];
+	}
+}